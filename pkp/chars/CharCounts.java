@@ -8,8 +8,11 @@ package pkp.chars;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileNotFoundException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import pkp.io.Io;
 import pkp.io.CrLf;
 import pkp.lookup.SharedIndexableInts;
@@ -33,6 +36,37 @@ class CharCounts implements SharedIndexableInts {
       m_Bigrams = bigrams;
    }
    
+   ////////////////////////////////////////////////////////////////////////////
+   // Forget the previous character, eg at the start of a file.
+   public void restart() {
+      m_CrLf = new CrLf();
+      m_Repeat = 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public void add(CharCounts other) {
+      for (int i = 0; i < m_Counts.length; ++i) {
+         m_Counts[i] += other.m_Counts[i];
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public void clear() {
+      Arrays.fill(m_Counts, 0);
+      restart();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void write(DataOutput out) throws IOException {
+      CountsCache.writeCounts(out, m_Counts);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the counts written by write().
+   void read(DataInput in) throws IOException {
+      CountsCache.readCounts(in, m_Counts);
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public boolean hasBigramCounts() {
       return m_Bigrams;
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2015 Pushkar Piggott
+ *
+ * CodePointCounts.java
+ */
+package pkp.chars;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import pkp.io.Io;
+import pkp.io.CrLf;
+import pkp.lookup.SharedIndexableInts;
+import pkp.util.Pref;
+
+////////////////////////////////////////////////////////////////////////////////
+// CharCounts for any code point. ASCII is counted in arrays, as by
+// CharCounts, and everything else in hash tables.
+class CodePointCounts implements SharedIndexableInts {
+
+   ////////////////////////////////////////////////////////////////////////////
+   CodePointCounts(boolean bigrams) {
+      m_MAX_REPEAT = Pref.getInt("#.count.repeats.max", 2);
+      m_Ascii = new int[CharCounts.sm_CHARS];
+      m_Others = new HashCounts();
+      if (bigrams) {
+         m_AsciiBigrams = new int[CharCounts.sm_CHARS * CharCounts.sm_CHARS];
+         m_OtherBigrams = new HashCounts();
+      }
+      restart();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Forget the previous character, eg at the start of a file.
+   public void restart() {
+      m_CrLf = new CrLf();
+      m_Prev = 0;
+      m_Repeat = 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public void add(CodePointCounts other) {
+      for (int i = 0; i < m_Ascii.length; ++i) {
+         m_Ascii[i] += other.m_Ascii[i];
+      }
+      m_Others.add(other.m_Others);
+      if (hasBigramCounts()) {
+         for (int i = 0; i < m_AsciiBigrams.length; ++i) {
+            m_AsciiBigrams[i] += other.m_AsciiBigrams[i];
+         }
+         m_OtherBigrams.add(other.m_OtherBigrams);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public void clear() {
+      Arrays.fill(m_Ascii, 0);
+      m_Others = new HashCounts();
+      if (hasBigramCounts()) {
+         Arrays.fill(m_AsciiBigrams, 0);
+         m_OtherBigrams = new HashCounts();
+      }
+      restart();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void write(DataOutput out) throws IOException {
+      CountsCache.writeCounts(out, m_Ascii);
+      m_Others.write(out);
+      if (hasBigramCounts()) {
+         CountsCache.writeCounts(out, m_AsciiBigrams);
+         m_OtherBigrams.write(out);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the counts written by write().
+   void read(DataInput in) throws IOException {
+      CountsCache.readCounts(in, m_Ascii);
+      m_Others.read(in);
+      if (hasBigramCounts()) {
+         CountsCache.readCounts(in, m_AsciiBigrams);
+         m_OtherBigrams.read(in);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public boolean hasBigramCounts() {
+      return m_AsciiBigrams != null;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override // SharedIndexableInts
+   public int getSize() {
+      return m_Ascii.length + m_Others.getSize();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override // SharedIndexableInts
+   public int getCount(int i) {
+      return i < m_Ascii.length
+             ? m_Ascii[i]
+             : m_Others.getCount(i - m_Ascii.length);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override // SharedIndexableInts
+   public String getLabel(int i) {
+      return toLabel(i < m_Ascii.length
+                     ? i
+                     : (int)m_Others.getKey(i - m_Ascii.length));
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // As CharCounts.nextChar().
+   public void nextCodePoint(int cp) {
+      int prev = m_Prev;
+      if (cp <= Character.MAX_VALUE) {
+         char c = m_CrLf.next((char)cp);
+         if (c == '\0') {
+            return;
+         }
+         m_Prev = cp;
+         cp = c;
+      } else {
+         // never \r or \n
+         m_CrLf.next(Character.highSurrogate(cp));
+         m_Prev = cp;
+      }
+      if (cp != prev) {
+         m_Repeat = 0;
+      } else {
+         ++m_Repeat;
+         if (m_Repeat >= m_MAX_REPEAT) {
+            return;
+         }
+      }
+      if (cp < CharCounts.sm_CHARS) {
+         ++m_Ascii[cp];
+      } else {
+         m_Others.add(cp);
+      }
+      if (hasBigramCounts() && prev != 0) {
+         if (prev < CharCounts.sm_CHARS && cp < CharCounts.sm_CHARS) {
+            ++m_AsciiBigrams[prev * CharCounts.sm_CHARS + cp];
+         } else {
+            m_OtherBigrams.add(combine(prev, cp));
+         }
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   class BigramCounts implements SharedIndexableInts {
+
+      /////////////////////////////////////////////////////////////////////////
+      @Override // SharedIndexableInts
+      public int getSize() {
+         return m_AsciiBigrams.length + m_OtherBigrams.getSize();
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      @Override // SharedIndexableInts
+      public int getCount(int i) {
+         return i < m_AsciiBigrams.length
+                ? m_AsciiBigrams[i]
+                : m_OtherBigrams.getCount(i - m_AsciiBigrams.length);
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      @Override // SharedIndexableInts
+      public String getLabel(int i) {
+         if (i < m_AsciiBigrams.length) {
+            return toLabel(i / CharCounts.sm_CHARS) + toLabel(i % CharCounts.sm_CHARS);
+         }
+         long bigram = m_OtherBigrams.getKey(i - m_AsciiBigrams.length);
+         return toLabel((int)(bigram >>> sm_CODE_POINT_BITS))
+              + toLabel((int)(bigram & sm_CODE_POINT_MASK));
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   static String toLabel(int cp) {
+      if (cp <= Character.MAX_VALUE) {
+         return Io.toEscapeCharCommented((char)cp);
+      }
+      return new String(Character.toChars(cp));
+   }
+
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static long combine(int first, int second) {
+      return (long)first << sm_CODE_POINT_BITS | second;
+   }
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private static final int sm_CODE_POINT_BITS = 21;
+   private static final long sm_CODE_POINT_MASK = (1L << sm_CODE_POINT_BITS) - 1;
+   private static int m_MAX_REPEAT;
+   private final int[] m_Ascii;
+   private HashCounts m_Others;
+   private int[] m_AsciiBigrams;
+   private HashCounts m_OtherBigrams;
+   private CrLf m_CrLf;
+   private int m_Prev;
+   private int m_Repeat;
+}
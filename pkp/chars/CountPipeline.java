@@ -0,0 +1,336 @@
+/**
+ * Copyright 2015 Pushkar Piggott
+ *
+ * CountPipeline.java
+ *
+ * Counts files in three stages so that reading and counting overlap:
+ * a reader thread reads the files ahead, a window at a time, and hands
+ * the windows to counting threads through bounded queues, and the
+ * calling thread merges their counts once all are done.
+ * Windows are recycled through a fixed pool, so the reader stops when
+ * it is that far ahead and memory does not grow with the files.
+ * All the windows of a file go to the same counter, in order, so the
+ * counts carry from one window to the next as when read in one go.
+ * Cancelling the progress window stops all the stages soon after.
+ */
+package pkp.chars;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import pkp.ui.ProgressWindow;
+import pkp.util.Log;
+
+////////////////////////////////////////////////////////////////////////////////
+class CountPipeline {
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Each of threads counters is an empty copy of template. If cache is
+   // not null each file is counted apart and its counts cached.
+   // pw may be null.
+   CountPipeline(Counts.Counter template, CountsCache cache, int threads, ProgressWindow pw) {
+      m_Cache = cache;
+      m_ProgressWindow = pw;
+      m_Workers = new Worker[Math.max(1, threads)];
+      int windows = m_Workers.length * sm_WINDOWS_PER_THREAD;
+      m_Free = new ArrayBlockingQueue<Window>(windows);
+      for (int i = 0; i < windows; ++i) {
+         m_Free.add(new Window(Counts.sm_WINDOW_SIZE));
+      }
+      for (int i = 0; i < m_Workers.length; ++i) {
+         // room for every window and the end marker
+         m_Workers[i] = new Worker(new Counts.Counter(template),
+                                   new ArrayBlockingQueue<Window>(windows + 1));
+      }
+      m_Bytes = new AtomicLong();
+      m_FilesCounted = new AtomicInteger();
+      m_Stopped = false;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the counts of files to counter. Returns false, leaving counter
+   // as it was, if cancelled or a file failed to count.
+   boolean count(List<File> files, Counts.Counter counter) {
+      long start = System.nanoTime();
+      Reader reader = new Reader(files);
+      reader.start();
+      for (Worker w : m_Workers) {
+         w.start();
+      }
+      for (Worker w : m_Workers) {
+         while (!join(w, sm_REPORT_MSEC)) {
+            if (m_ProgressWindow != null) {
+               if (m_ProgressWindow.isCancelled()) {
+                  m_Stopped = true;
+               }
+               m_ProgressWindow.setNote(getThroughput(start));
+            }
+         }
+      }
+      join(reader, 0);
+      if (m_Stopped) {
+         Log.log("Count stopped after " + getThroughput(start));
+         return false;
+      }
+      for (Worker w : m_Workers) {
+         counter.add(w.m_Counter);
+      }
+      Log.log(String.format("Count read %d files: %s", m_FilesCounted.get(), getThroughput(start)));
+      return true;
+   }
+
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns whether t finished within msec, or ever if 0.
+   private static boolean join(Thread t, long msec) {
+      try {
+         t.join(msec);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      return !t.isAlive();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private String getThroughput(long start) {
+      double sec = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+      return String.format("%.1f MB/s, %.0f files/s",
+                           m_Bytes.get() / sec / (1024 * 1024),
+                           m_FilesCounted.get() / sec);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Waits for a free window, returning null if stopped meanwhile.
+   private Window takeFree() {
+      try {
+         while (!m_Stopped) {
+            Window w = m_Free.poll(sm_REPORT_MSEC, TimeUnit.MILLISECONDS);
+            if (w != null) {
+               return w;
+            }
+         }
+      } catch (InterruptedException e) {
+         m_Stopped = true;
+      }
+      return null;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // A part of a file, or the end of the files if m_File is null.
+   private static class Window {
+
+      /////////////////////////////////////////////////////////////////////////
+      Window(int size) {
+         m_Bytes = new byte[size];
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      void set(File f, long size, long modified, boolean first) {
+         m_File = f;
+         m_Size = size;
+         m_Modified = modified;
+         m_First = first;
+         m_Last = false;
+         m_Failed = false;
+         m_Length = 0;
+      }
+
+      // Data /////////////////////////////////////////////////////////////////
+      private final byte[] m_Bytes;
+      private int m_Length;
+      private File m_File;
+      private long m_Size;
+      private long m_Modified;
+      private boolean m_First;
+      private boolean m_Last;
+      private boolean m_Failed;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Reads each file into windows for the counter with the least queued.
+   private class Reader extends Thread {
+
+      /////////////////////////////////////////////////////////////////////////
+      Reader(List<File> files) {
+         m_Files = files;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      public void run() {
+         boolean readAll = false;
+         try {
+            for (File f : m_Files) {
+               if (m_Stopped || !read(f, leastQueued())) {
+                  break;
+               }
+            }
+            readAll = true;
+         } finally {
+            if (!readAll) {
+               m_Stopped = true;
+            }
+            // an end marker always fits
+            for (Worker w : m_Workers) {
+               w.m_Queue.add(sm_END);
+            }
+         }
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Returns false if stopped.
+      private boolean read(File f, Worker worker) {
+         long size = f.length();
+         long modified = f.lastModified();
+         Window w = takeFree();
+         if (w == null) {
+            return false;
+         }
+         w.set(f, size, modified, true);
+         FileInputStream fis = null;
+         try {
+            fis = new FileInputStream(f);
+         } catch (FileNotFoundException e) {
+            Log.err("Failed to open \"" + f.getPath() + '"');
+            w.m_Last = true;
+            w.m_Failed = true;
+            worker.m_Queue.add(w);
+            return true;
+         }
+         try {
+            for (;;) {
+               int length = fis.read(w.m_Bytes);
+               if (length < 0) {
+                  break;
+               }
+               w.m_Length = length;
+               worker.m_Queue.add(w);
+               w = takeFree();
+               if (w == null) {
+                  return false;
+               }
+               w.set(f, size, modified, false);
+            }
+         } catch (IOException e) {
+            Log.err("Failed to read \"" + f.getPath() + '"');
+            w.m_Failed = true;
+         } finally {
+            try {
+               fis.close();
+            } catch (IOException e) {
+               Log.err("Failed to close \"" + f.getPath() + '"');
+            }
+         }
+         w.m_Last = true;
+         worker.m_Queue.add(w);
+         return true;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      private Worker leastQueued() {
+         Worker least = m_Workers[0];
+         for (int i = 1; i < m_Workers.length; ++i) {
+            if (m_Workers[i].m_Queue.size() < least.m_Queue.size()) {
+               least = m_Workers[i];
+            }
+         }
+         return least;
+      }
+
+      // Data /////////////////////////////////////////////////////////////////
+      private final List<File> m_Files;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Counts the windows queued for it into its own counter.
+   private class Worker extends Thread {
+
+      /////////////////////////////////////////////////////////////////////////
+      Worker(Counts.Counter counter, ArrayBlockingQueue<Window> queue) {
+         m_Counter = counter;
+         m_Queue = queue;
+         m_Target = counter;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      public void run() {
+         for (;;) {
+            Window w;
+            try {
+               w = m_Queue.take();
+            } catch (InterruptedException e) {
+               m_Stopped = true;
+               return;
+            }
+            if (w.m_File == null) {
+               return;
+            }
+            // stops everything on any failure, eg running out of memory,
+            // so the reader does not wait for windows that never come back
+            try {
+               if (!m_Stopped) {
+                  count(w);
+               }
+            } catch (Throwable e) {
+               m_Stopped = true;
+               Log.err("Failed to count \"" + w.m_File.getPath() + "\": " + e);
+               if (e instanceof Error) {
+                  throw (Error)e;
+               }
+            } finally {
+               m_Free.add(w);
+            }
+         }
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      private void count(Window w) {
+         if (w.m_First) {
+            m_Target = m_Cache == null ? m_Counter : m_Counter.getApart();
+            m_Target.start();
+         }
+         m_Target.count(w.m_Bytes, w.m_Length);
+         m_Bytes.addAndGet(w.m_Length);
+         if (!w.m_Last) {
+            return;
+         }
+         m_Target.finish(w.m_File);
+         if (m_Cache != null) {
+            if (!w.m_Failed) {
+               m_Cache.put(w.m_File, w.m_Size, w.m_Modified, m_Target.toBytes());
+            }
+            m_Counter.add(m_Target);
+            m_Target.clear();
+         }
+         m_FilesCounted.incrementAndGet();
+         if (m_ProgressWindow != null) {
+            synchronized (m_ProgressWindow) {
+               m_ProgressWindow.step();
+            }
+         }
+      }
+
+      // Data /////////////////////////////////////////////////////////////////
+      private final Counts.Counter m_Counter;
+      private final ArrayBlockingQueue<Window> m_Queue;
+      private Counts.Counter m_Target;
+   }
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private static final int sm_WINDOWS_PER_THREAD = 4;
+   private static final int sm_REPORT_MSEC = 250;
+   private static final Window sm_END = new Window(0);
+   private final CountsCache m_Cache;
+   private final ProgressWindow m_ProgressWindow;
+   private final Worker[] m_Workers;
+   private final ArrayBlockingQueue<Window> m_Free;
+   private final AtomicLong m_Bytes;
+   private final AtomicInteger m_FilesCounted;
+   private volatile boolean m_Stopped;
+}
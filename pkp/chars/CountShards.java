@@ -0,0 +1,228 @@
+/**
+ * Copyright 2015 Pushkar Piggott
+ *
+ * CountShards.java
+ *
+ * Counts a folder tree without the UI. The files are split into shards
+ * of about the same size, each counted by a separate java process that
+ * saves its counts, and the saved counts are merged. So counting can
+ * use more memory and processors than one process has.
+ * Counts saved elsewhere, eg on other machines, are merged the same way.
+ */
+package pkp.chars;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import pkp.io.Io;
+import pkp.twiddle.KeyPress;
+import pkp.util.Log;
+import pkp.util.Persist;
+import pkp.util.Pref;
+import pkp.util.Util;
+
+////////////////////////////////////////////////////////////////////////////////
+public class CountShards {
+
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static void init() {
+      System.setProperty("java.awt.headless", "true");
+      Log.init(Log.ExitOnError);
+      Persist.init("twidlit.properties", ".", "pref");
+      Pref.init("twidlit.preferences", Persist.get("#.pref.dir"), "pref");
+      KeyPress.init();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static void usage() {
+      System.err.println(
+         "usage: java -cp twidlit.jar pkp.chars.CountShards [options] -d folder\n"
+       + "       java -cp twidlit.jar pkp.chars.CountShards [options] -m saved...\n"
+       + "  -d folder  count the files in the folder tree\n"
+       + "  -m saved.. merge counts saved before, with the same options\n"
+       + "  -s file    save the counts to file (" + sm_DEFAULT_SAVE + ")\n"
+       + "  -p n       count in n processes (one per processor)\n"
+       + "  -u         decode UTF-8\n"
+       + "  -b         include bigrams\n"
+       + "  -o n       include all ngrams of up to n characters\n"
+       + "  -n file    include the ngrams listed in file\n"
+       + "  -t         print a table of the counts");
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The options that change what is counted, to pass on to each shard.
+   private static List<String> getCountOptions(String[] argv) {
+      List<String> options = new ArrayList<String>();
+      for (String opt : new String[]{"-u", "-b"}) {
+         if (Util.getOptionIndex(opt, argv) != -1) {
+            options.add(opt);
+         }
+      }
+      for (String opt : new String[]{"-o", "-n"}) {
+         String value = Util.getOptionValue(opt, null, argv);
+         if (value != null) {
+            options.add(opt);
+            options.add(value);
+         }
+      }
+      return options;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static Counts createCounts(String[] argv) {
+      String nGrams = Util.getOptionValue("-n", null, argv);
+      Counts counts = new Counts(nGrams == null ? null : new File(nGrams), 1, Integer.MAX_VALUE);
+      counts.setUtf8(Util.getOptionIndex("-u", argv) != -1);
+      counts.setShowBigrams(Util.getOptionIndex("-b", argv) != -1);
+      counts.setNGramOrder(Integer.parseInt(Util.getOptionValue("-o", "0", argv)));
+      return counts;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Splits the files into shards of about the same total size,
+   // largest first, each to the smallest shard so far.
+   private static List<List<File>> split(List<File> files, int shards) {
+      List<File> sorted = new ArrayList<File>(files);
+      Collections.sort(sorted, new Comparator<File>() {
+         public int compare(File a, File b) {
+            return Long.compare(b.length(), a.length());
+         }
+      });
+      List<List<File>> split = new ArrayList<List<File>>();
+      long[] sizes = new long[shards];
+      for (int i = 0; i < shards; ++i) {
+         split.add(new ArrayList<File>());
+      }
+      for (File f : sorted) {
+         int smallest = 0;
+         for (int i = 1; i < shards; ++i) {
+            if (sizes[i] < sizes[smallest]) {
+               smallest = i;
+            }
+         }
+         split.get(smallest).add(f);
+         sizes[smallest] += f.length();
+      }
+      return split;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Counts the files listed in each shard in its own process and merges
+   // the counts each saves. Returns false if any failed.
+   private static boolean countShards(List<List<File>> shards, List<String> options, Counts counts) throws IOException {
+      String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+      int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / shards.size());
+      List<Process> processes = new ArrayList<Process>();
+      List<File> saved = new ArrayList<File>();
+      List<File> lists = new ArrayList<File>();
+      for (List<File> shard : shards) {
+         File list = File.createTempFile("twidlit.shard.", ".txt");
+         File save = File.createTempFile("twidlit.shard.", ".counts");
+         list.deleteOnExit();
+         save.deleteOnExit();
+         List<String> paths = new ArrayList<String>();
+         for (File f : shard) {
+            paths.add(f.getAbsolutePath());
+         }
+         Files.write(list.toPath(), paths, StandardCharsets.UTF_8);
+         List<String> command = new ArrayList<String>();
+         command.add(java);
+         command.add("-Djava.awt.headless=true");
+         command.add("-cp");
+         command.add(System.getProperty("java.class.path"));
+         command.add(CountShards.class.getName());
+         command.addAll(options);
+         command.add(sm_SHARD);
+         command.add(list.getPath());
+         command.add("-j");
+         command.add(Integer.toString(threads));
+         command.add("-s");
+         command.add(save.getPath());
+         processes.add(new ProcessBuilder(command).inheritIO().start());
+         saved.add(save);
+         lists.add(list);
+      }
+      boolean ok = true;
+      for (int i = 0; i < processes.size(); ++i) {
+         int exit;
+         try {
+            exit = processes.get(i).waitFor();
+         } catch (InterruptedException e) {
+            exit = -1;
+         }
+         if (exit != 0 || !counts.merge(saved.get(i))) {
+            System.err.printf("Shard %d of %d failed.%n", i + 1, processes.size());
+            ok = false;
+         }
+         saved.get(i).delete();
+         lists.get(i).delete();
+      }
+      return ok;
+   }
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private static final String sm_DEFAULT_SAVE = "twidlit.counts";
+   // counts the files listed in a shard, in a process started by another
+   private static final String sm_SHARD = "-shard";
+
+   // Main /////////////////////////////////////////////////////////////////////
+   public static void main(String[] argv) throws IOException {
+      String folder = Util.getOptionValue("-d", null, argv);
+      String shard = Util.getOptionValue(sm_SHARD, null, argv);
+      int merge = Util.getOptionIndex("-m", argv);
+      if (folder == null && shard == null && merge == -1) {
+         usage();
+         System.exit(1);
+      }
+      init();
+      Counts counts = createCounts(argv);
+      File save = new File(Util.getOptionValue("-s", sm_DEFAULT_SAVE, argv));
+      if (shard != null) {
+         Pref.set("#.count.threads", Integer.parseInt(Util.getOptionValue("-j", "0", argv)));
+         List<File> files = new ArrayList<File>();
+         for (String path : Files.readAllLines(new File(shard).toPath(), StandardCharsets.UTF_8)) {
+            files.add(new File(path));
+         }
+         // a partial save would be merged as if complete
+         if (!counts.count(files, null) || !counts.save(save)) {
+            System.exit(1);
+         }
+         return;
+      }
+      boolean ok = true;
+      if (folder != null) {
+         List<File> files = Io.listAllFilesInTree(new File(folder));
+         int processes = Integer.parseInt(Util.getOptionValue("-p", "0", argv));
+         if (processes <= 0) {
+            processes = Runtime.getRuntime().availableProcessors();
+         }
+         processes = Math.max(1, Math.min(processes, files.size()));
+         long start = System.nanoTime();
+         ok = countShards(split(files, processes), getCountOptions(argv), counts);
+         System.err.printf("Counted %d files in %d processes in %.1f s%n",
+                           files.size(), processes, (System.nanoTime() - start) / 1e9);
+      }
+      if (merge != -1) {
+         for (int i = merge + 1; i < argv.length && !argv[i].startsWith("-"); ++i) {
+            ok &= counts.merge(new File(argv[i]));
+         }
+      }
+      ok &= counts.save(save);
+      if (Util.getOptionIndex("-t", argv) != -1) {
+         Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+         counts.table(out, null);
+         out.flush();
+      }
+      System.exit(ok ? 0 : 1);
+   }
+}
@@ -6,18 +6,34 @@
 package pkp.chars;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
-import java.nio.ByteBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import pkp.io.Io;
+import pkp.io.Utf8;
 import pkp.twiddle.KeyPress;
 import pkp.lookup.SharedIndex;
 import pkp.lookup.SharedIndexableInts;
 import pkp.ui.ProgressWindow;
+import pkp.util.Pref;
 import pkp.util.Log;
 
 ////////////////////////////////////////////////////////////////////////////////
@@ -28,21 +44,33 @@ public class Counts {
       m_File = f;
       m_NGrams = null;
       m_CharCounts = null;
+      m_CodePointCounts = null;
+      m_Counter = null;
       m_Index = null;
       m_LowestCount = lowest;
       m_HighestCount = highest;
       m_ShowBigrams = false;
+      m_Utf8 = false;
+      m_NGramOrder = 0;
+      m_NGramCounts = null;
+      m_CacheFile = null;
    }
    
    ////////////////////////////////////////////////////////////////////////////
    public Counts(Counts other) {
       m_File = other.m_File;
       m_CharCounts = other.m_CharCounts;
+      m_CodePointCounts = other.m_CodePointCounts;
       m_NGrams = other.m_NGrams;
+      m_Counter = null;
       m_Index = other.m_Index;
       m_LowestCount = other.m_LowestCount;
       m_HighestCount = other.m_HighestCount;
       m_ShowBigrams = other.m_ShowBigrams;
+      m_Utf8 = other.m_Utf8;
+      m_NGramOrder = other.m_NGramOrder;
+      m_NGramCounts = other.m_NGramCounts;
+      m_CacheFile = other.m_CacheFile;
    }
    
    ////////////////////////////////////////////////////////////////////////////
@@ -52,7 +80,44 @@ public class Counts {
       }
       m_ShowBigrams = set;
       m_CharCounts = null;
+      m_CodePointCounts = null;
+      m_NGramCounts = null;
       m_NGrams = null;
+      m_Counter = null;
+      m_Index = null;
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Decode files as UTF-8 and count every code point, rather than
+   // count ASCII and ignore any other bytes.
+   public boolean setUtf8(boolean set) {
+      if (set == m_Utf8) {
+         return false;
+      }
+      m_Utf8 = set;
+      m_CharCounts = null;
+      m_CodePointCounts = null;
+      m_NGramCounts = null;
+      m_NGrams = null;
+      m_Counter = null;
+      m_Index = null;
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Count every ngram of 3 up to order chars. 0 counts none.
+   public boolean setNGramOrder(int order) {
+      if (order == m_NGramOrder) {
+         return false;
+      }
+      m_NGramOrder = order;
+      m_CharCounts = null;
+      m_CodePointCounts = null;
+      m_NGramCounts = null;
+      m_NGrams = null;
+      m_Counter = null;
+      m_Index = null;
       return true;
    }
 
@@ -62,20 +127,40 @@ public class Counts {
          return false;
       }
       m_CharCounts = null;
+      m_CodePointCounts = null;
+      m_NGramCounts = null;
       m_File = f;
       m_NGrams = null;
+      m_Counter = null;
+      m_Index = null;
       return true;
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Folders are counted using the counts cached in f of the files
+   // that have not changed since they were counted. Null counts every file.
+   public void setCacheFile(File f) {
+      m_CacheFile = f;
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public void setBounds(int lowest, int highest) {
       if (lowest != m_LowestCount || highest != m_HighestCount) { 
          m_LowestCount = lowest;
          m_HighestCount = highest;
-         m_Index = null;
       }
    }
    
+   ////////////////////////////////////////////////////////////////////////////
+   // Sorts the counts, unless they are unchanged since last sorted.
+   // Copies made after share the sort, and any range of counts is
+   // then shown without sorting again.
+   public synchronized void sort() {
+      if (m_Index == null) {
+         m_Index = createIndex();
+      }
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public static int getProgressCount() {
       return 10;
@@ -101,131 +186,257 @@ public class Counts {
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   public String table(ProgressWindow pw) {
-      if (m_Index == null) {
-         m_Index = createIndex();
+   // Counts the files in a CountPipeline, reading ahead on one thread
+   // and counting on #.count.threads threads (0 is one per processor),
+   // each with its own counts, merged when all are done.
+   // Each file is counted from a fresh start so the totals do not depend
+   // on the order, or the thread, in which the files were counted.
+   // That also lets unchanged files be added from the cache, if any.
+   // Returns false, leaving the counts as they were, if pw was cancelled.
+   // pw may be null when there is no one to show progress to.
+   public boolean count(List<File> files, ProgressWindow pw) {
+      Counter counter = getCounter();
+      Counter counted = new Counter(counter);
+      CountsCache cache = null;
+      if (m_CacheFile != null) {
+         cache = new CountsCache(m_CacheFile, getCacheSignature());
+         ArrayList<File> changed = new ArrayList<File>();
+         for (File file : files) {
+            byte[] counts = cache.get(file);
+            if (counts != null && counted.add(counts)) {
+               if (pw != null) {
+                  pw.step();
+               }
+            } else {
+               changed.add(file);
+            }
+         }
+         Log.log(String.format("Count used the cached counts of %d of %d files", files.size() - changed.size(), files.size()));
+         files = changed;
+      }
+      int threads = Pref.getInt("#.count.threads", 0);
+      if (threads <= 0) {
+         threads = Runtime.getRuntime().availableProcessors();
+      }
+      threads = Math.min(threads, files.size());
+      boolean done = files.size() == 0
+                  || new CountPipeline(counter, cache, threads, pw).count(files, counted);
+      // files counted before a cancel are still cached
+      if (cache != null) {
+         cache.write();
+      }
+      if (!done) {
+         return false;
+      }
+      m_Index = null;
+      counter.add(counted);
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Saves the counts so that merge() can add them to counts made with
+   // the same options, eg by another process or on another machine.
+   // Saved as a gzipped binary file: a header holding the counting
+   // options, followed by the counts as written to the cache.
+   // Returns false if the counts could not be saved.
+   public boolean save(File f) {
+      try {
+         String signature = getSnapshotSignature();
+         DataOutputStream out = new DataOutputStream(
+                                   new BufferedOutputStream(
+                                      new GZIPOutputStream(
+                                         new FileOutputStream(f))));
+         out.writeInt(sm_SNAPSHOT_MAGIC);
+         out.writeInt(sm_SNAPSHOT_VERSION);
+         out.writeUTF(signature);
+         getCounter().write(out);
+         out.close();
+      } catch (IOException e) {
+         Log.warn("Failed to save counts \"" + f.getPath() + "\": " + e);
+         return false;
+      }
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the counts saved by save(). The sums are exact, except for
+   // #.count.ngrams.top whose bounds are kept. Returns false, leaving
+   // the counts as they were, if f was saved with other options or
+   // could not be read.
+   public boolean merge(File f) {
+      Counter counter = getCounter();
+      Counter merged = new Counter(counter);
+      DataInputStream in = null;
+      try {
+         in = new DataInputStream(
+                 new BufferedInputStream(
+                    new GZIPInputStream(
+                       new FileInputStream(f))));
+         if (in.readInt() != sm_SNAPSHOT_MAGIC) {
+            throw new IOException("not saved counts");
+         }
+         int version = in.readInt();
+         if (version != sm_SNAPSHOT_VERSION) {
+            throw new IOException("unknown version " + version);
+         }
+         String signature = in.readUTF();
+         if (!signature.equals(getSnapshotSignature())) {
+            Log.warn("\"" + f.getPath() + "\" was counted with different options (" + signature + ").");
+            in.close();
+            return false;
+         }
+         merged.read(in);
+         // reading the end checks the CRC
+         if (in.read() != -1) {
+            throw new IOException("unexpected data at end");
+         }
+         in.close();
+      } catch (IOException e) {
+         Log.warn("Failed to read counts \"" + f.getPath() + "\": " + e);
+         try {
+            if (in != null) {
+               in.close();
+            }
+         } catch (IOException ce) {}
+         return false;
+      }
+      m_Index = null;
+      counter.add(merged);
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Appends the table a line at a time, so out can be a file.
+   public void table(Appendable out, ProgressWindow pw) throws IOException {
+      sort();
+      SharedIndex index = m_Index.range(m_HighestCount, m_LowestCount);
+      if (pw != null) {
+         pw.step();
       }
-      pw.step();
       int labelSize = getLabelSize();
       String pad = (new String(new char[labelSize])).replace('\0', ' ');
       final int DP = 4;
-      String countFormat = String.format("%%%dd", m_Index.getMaxDigits());
-		int pcDigits = m_Index.calcPercents();
-      String str = "";
-      final int STEP = Math.max(1, m_Index.getSize() / (getProgressCount() - 1));
-		for (int i = 0; i < m_Index.getSize(); ++i) {
-         if (i % STEP == STEP - 1) {
+      String countFormat = String.format("%%%dd", index.getMaxDigits());
+		int pcDigits = index.calcPercents();
+      // percents of 10 and 100 or more take a space less
+      String[] pcFormats = new String[3];
+      for (int i = 0; i < pcFormats.length; ++i) {
+         pcFormats[i] = String.format("%%%d.%df", pcDigits + 1 + DP - i, DP);
+      }
+      final int STEP = Math.max(1, index.getSize() / (getProgressCount() - 1));
+		for (int i = 0; i < index.getSize(); ++i) {
+         if (pw != null && i % STEP == STEP - 1) {
             pw.step();
          }
-         for (int j = 0; j < 3; ++j) {
-            switch (j) {
-               case 0: {
-                  String label = m_Index.getLabel(i);
-                  str += pad.substring(0, pad.length() - label.length()) + label;
-                  break;
-               }
-               case 1:
-                  str += String.format(countFormat, m_Index.getValue(i));
-                  break;
-               case 2: {
-                  int space = pcDigits + 1 + DP;
-                  double pc = m_Index.getPercent(i);
-                  if (pc >= 10.0) {
-                     --space;
-                     if (pc >= 100.0) {
-                        --space;
-                     }
-                  }
-                  str += String.format(String.format("%%%d.%df", space, DP), pc);
-                  break;
-               }
-            }
-            if (j < 2) {
-               str += ' ';
-            }
-         }
-         str += '\n';
+         String label = index.getLabel(i);
+         out.append(pad, 0, pad.length() - label.length()).append(label);
+         out.append(' ').append(String.format(countFormat, index.getValue(i)));
+         double pc = index.getPercent(i);
+         String pcFormat = pc >= 100.0 ? pcFormats[2]
+                         : pc >= 10.0 ? pcFormats[1]
+                         : pcFormats[0];
+         out.append(' ').append(String.format(pcFormat, pc)).append('\n');
 		}
-      return str;
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   public String graph(ProgressWindow pw) {
-      if (m_Index == null) {
-         m_Index = createIndex();
+   // Appends the graph a line at a time, so out can be a file.
+   public void graph(Appendable out, ProgressWindow pw) throws IOException {
+      sort();
+      SharedIndex index = m_Index.range(m_HighestCount, m_LowestCount);
+      if (pw != null) {
+         pw.step();
       }
-      pw.step();
       int labelSize = getLabelSize();
       String pad = (new String(new char[labelSize])).replace('\0', ' ');
       final int WIDTH = sm_PAGE_WIDTH - labelSize;
-      double scale = WIDTH / (m_Index.getMax() + 0.5);
-      String str = "";
-      final int STEP = Math.max(1, m_Index.getSize() / (getProgressCount() - 1));
-		for (int i = 0; i < m_Index.getSize(); ++i) {
-         if (i % STEP == STEP - 1) {
+      String bar = (new String(new char[Math.max(0, WIDTH - 1)])).replace('\0', '=');
+      double scale = WIDTH / (index.getMax() + 0.5);
+      final int STEP = Math.max(1, index.getSize() / (getProgressCount() - 1));
+		for (int i = 0; i < index.getSize(); ++i) {
+         if (pw != null && i % STEP == STEP - 1) {
             pw.step();
          }
-         int dots = (int)(m_Index.getValue(i) * scale);
+         int dots = (int)(index.getValue(i) * scale);
          if (dots > 0) {
             int last = Math.min(dots, WIDTH - 1);
-            String label = m_Index.getLabel(i);
-            str += pad.substring(0, Math.max(0, pad.length() - label.length())) + label;
-            str += ' ' + (new String(new char[last])).replace('\0', '=');
-				str += (dots == WIDTH) ? "=\n"
-                 : (dots > WIDTH) ? ">\n" : "\n";
+            String label = index.getLabel(i);
+            out.append(pad, 0, Math.max(0, pad.length() - label.length())).append(label);
+            out.append(' ').append(bar, 0, last);
+				out.append((dots == WIDTH) ? "=\n"
+                     : (dots > WIDTH) ? ">\n" : "\n");
 			}
 		}
-      return str;
    }
    
    // Private /////////////////////////////////////////////////////////////////
 
    ////////////////////////////////////////////////////////////////////////////
    private void countFile(File f) {
-      byte[] data = new byte[(int)f.length()];
-      FileInputStream fis = null;
-      try {
-         fis = new FileInputStream(f);
-      } catch (FileNotFoundException e) {
-         Log.err("Failed to open \"" + f.getPath() + '"');
-         return;
-      }
-      try {
-         fis.read(data, 0, data.length);
-         fis.close();
-      } catch (IOException e) {
-         Log.err("Failed to read \"" + f.getPath() + '"');
-         return;
-      }
-      if (m_CharCounts == null) {
-         m_CharCounts = new CharCounts(m_ShowBigrams);
-      }
-      boolean ignoredSome = false;
-      boolean[] ignored = new boolean[128];
-      ByteBuffer bb = ByteBuffer.wrap(data);
-      while (bb.hasRemaining()) {
-         int cin = bb.get() & 0xFF;
-         if (cin >= 128) {
-            ignoredSome = true;
-            ignored[cin - 128] = true;
-            continue;
-         }
-         m_CharCounts.nextChar((char)cin);
-         if (getNGrams() != null) {
-            getNGrams().nextChar((char)cin);
-         }
-      }
-      if (ignoredSome) {
-         String ig = "";
-         for (int i = 0; i < ignored.length; ++i) {
-            if (ignored[i]) {
-               ig += String.format(" 0x%x", i + 128);
+      m_Index = null;
+      getCounter().countFile(f);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private Counter getCounter() {
+      if (m_Counter == null) {
+         if (m_Utf8) {
+            if (m_CodePointCounts == null) {
+               m_CodePointCounts = new CodePointCounts(m_ShowBigrams);
             }
+         } else if (m_CharCounts == null) {
+            m_CharCounts = new CharCounts(m_ShowBigrams);
+         }
+         if (m_NGramOrder > 0 && m_NGramCounts == null) {
+            m_NGramCounts = new NGramCounts(m_NGramOrder, m_Utf8);
          }
-         Log.log("Count ignored the following bytes in " + f.getName() + ':' + ig);
+         m_Counter = new Counter(m_CharCounts, m_CodePointCounts, m_NGramCounts, getNGrams());
       }
-	}
+      return m_Counter;
+   }
    
+   ////////////////////////////////////////////////////////////////////////////
+   // The options that change what is counted, so counts saved or
+   // cached with other options are not used.
+   private String getSignature() {
+      String sig = String.format("%s %s repeats %d",
+                                 m_Utf8 ? "utf8" : "ascii",
+                                 m_ShowBigrams ? "bigrams" : "chars",
+                                 Pref.getInt("#.count.repeats.max", 2));
+      if (m_NGramCounts != null) {
+         sig += " order " + m_NGramCounts.getOrder();
+         if (m_NGramCounts.isTop()) {
+            sig += String.format(" top %d sketch %d",
+                                 Pref.getInt("#.count.ngrams.top", 0),
+                                 Pref.getInt("#.count.ngrams.sketch.kb", 256));
+         }
+      }
+      return sig;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private String getCacheSignature() {
+      String sig = getSignature();
+      if (m_File != null) {
+         sig += String.format(" ngrams %s %d %d",
+                              m_File.getAbsolutePath(), m_File.length(), m_File.lastModified());
+      }
+      return sig;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The ngrams file is known by its contents, so counts saved on
+   // another machine, with a copy of it, can be merged.
+   private String getSnapshotSignature() throws IOException {
+      String sig = getSignature();
+      if (m_File != null) {
+         CRC32 crc = new CRC32();
+         crc.update(Files.readAllBytes(m_File.toPath()));
+         sig += String.format(" ngrams %08x", crc.getValue());
+      }
+      return sig;
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    private SharedIndex createIndex() {
       ArrayList<SharedIndexableInts> sic = new ArrayList<SharedIndexableInts>();
@@ -234,17 +445,43 @@ public class Counts {
          if (m_CharCounts.hasBigramCounts()) {
             sic.add(m_CharCounts.new BigramCounts());
          }
-         if (getNGrams() != null) {
-            sic.add(getNGrams());
+      } else if (m_CodePointCounts != null) {
+         sic.add(m_CodePointCounts);
+         if (m_CodePointCounts.hasBigramCounts()) {
+            sic.add(m_CodePointCounts.new BigramCounts());
+         }
+      }
+      if (sic.size() > 0 && m_NGramCounts != null) {
+         sic.add(m_NGramCounts);
+         if (m_NGramCounts.isTop()) {
+            logTopBounds();
          }
       }
+      if (sic.size() > 0 && getNGrams() != null) {
+         sic.add(getNGrams());
+      }
       return SharedIndex.create(sic, m_HighestCount, m_LowestCount);
    }
    
    
+   ////////////////////////////////////////////////////////////////////////////
+   // The table does not show the error of each approximate count
+   // so the file can be read as usual, so log the bounds.
+   private void logTopBounds() {
+      int maxError = 0;
+      for (int i = 0; i < m_NGramCounts.getSize(); ++i) {
+         maxError = Math.max(maxError, m_NGramCounts.getError(i));
+      }
+      Log.log(String.format("Counted the %d most frequent ngrams. Their counts are high by at most %d and any other ngram occurred at most %d times.",
+                            m_NGramCounts.getSize(), maxError, m_NGramCounts.getMaxUncounted()));
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    private int getLabelSize() {
       int labelSize = m_ShowBigrams ? 4 : 2;
+      if (m_NGramCounts != null) {
+         labelSize = Math.max(labelSize, m_NGramCounts.findMaxLength(m_LowestCount, m_HighestCount));
+      }
       if (getNGrams() == null) {
          return labelSize;
       }
@@ -262,13 +499,290 @@ public class Counts {
       return m_NGrams;
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // The char or code point counts and (optional) ngrams that one thread
+   // counts into.
+   static class Counter {
+      
+      /////////////////////////////////////////////////////////////////////////
+      // Decodes UTF-8 if codePointCounts is not null.
+      Counter(CharCounts charCounts, CodePointCounts codePointCounts, NGramCounts nGramCounts, NGrams nGrams) {
+         m_CharCounts = charCounts;
+         m_CodePointCounts = codePointCounts;
+         m_NGramCounts = nGramCounts;
+         m_NGrams = nGrams;
+         m_Utf8 = codePointCounts == null
+                ? null
+                : new Utf8();
+      }
+      
+      /////////////////////////////////////////////////////////////////////////
+      // Empty counts that share other's ngrams automaton.
+      Counter(Counter other) {
+         this(other.m_CharCounts == null
+              ? null
+              : new CharCounts(other.m_CharCounts.hasBigramCounts()),
+              other.m_CodePointCounts == null
+              ? null
+              : new CodePointCounts(other.m_CodePointCounts.hasBigramCounts()),
+              other.m_NGramCounts == null
+              ? null
+              : new NGramCounts(other.m_NGramCounts),
+              other.m_NGrams == null
+              ? null
+              : new NGrams(other.m_NGrams));
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      void write(DataOutput out) throws IOException {
+         if (m_CharCounts != null) {
+            m_CharCounts.write(out);
+         } else {
+            m_CodePointCounts.write(out);
+         }
+         if (m_NGramCounts != null) {
+            m_NGramCounts.write(out);
+         }
+         if (m_NGrams != null) {
+            m_NGrams.write(out);
+         }
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Adds the counts written by write().
+      void read(DataInput in) throws IOException {
+         if (m_CharCounts != null) {
+            m_CharCounts.read(in);
+         } else {
+            m_CodePointCounts.read(in);
+         }
+         if (m_NGramCounts != null) {
+            m_NGramCounts.read(in);
+         }
+         if (m_NGrams != null) {
+            m_NGrams.read(in);
+         }
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      byte[] toBytes() {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         try {
+            write(new DataOutputStream(bytes));
+         } catch (IOException e) {
+            Log.err("Failed to write counts: " + e);
+         }
+         return bytes.toByteArray();
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      void add(Counter other) {
+         if (m_CharCounts != null) {
+            m_CharCounts.add(other.m_CharCounts);
+         } else {
+            m_CodePointCounts.add(other.m_CodePointCounts);
+         }
+         if (m_NGramCounts != null) {
+            m_NGramCounts.add(other.m_NGramCounts);
+         }
+         if (m_NGrams != null) {
+            m_NGrams.add(other.m_NGrams);
+         }
+      }
+      
+      /////////////////////////////////////////////////////////////////////////
+      void clear() {
+         if (m_CharCounts != null) {
+            m_CharCounts.clear();
+         } else {
+            m_CodePointCounts.clear();
+         }
+         if (m_NGramCounts != null) {
+            m_NGramCounts.clear();
+         }
+         if (m_NGrams != null) {
+            m_NGrams.clear();
+         }
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Adds the counts of a file from the cache. They are read apart
+      // first, so returns false, leaving the counts as they were, if
+      // they could not all be read, and the file is counted instead.
+      boolean add(byte[] counts) {
+         Counter apart = getApart();
+         boolean read = true;
+         try {
+            apart.read(new DataInputStream(new ByteArrayInputStream(counts)));
+         } catch (IOException | RuntimeException e) {
+            Log.log("Ignored cached counts that could not be read: " + e);
+            read = false;
+         }
+         if (read) {
+            add(apart);
+         }
+         apart.clear();
+         return read;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Empty counts to count a file apart, so its counts can be cached
+      // before they are added.
+      Counter getApart() {
+         if (m_Apart == null) {
+            m_Apart = new Counter(this);
+         }
+         return m_Apart;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Reads the file through a reused window so a file of any size
+      // is counted in constant memory.
+      // Returns false if the file could not be read.
+      boolean countFile(File f) {
+         FileInputStream fis = null;
+         try {
+            fis = new FileInputStream(f);
+         } catch (FileNotFoundException e) {
+            Log.err("Failed to open \"" + f.getPath() + '"');
+            return false;
+         }
+         if (m_Window == null) {
+            m_Window = new byte[sm_WINDOW_SIZE];
+         }
+         start();
+         boolean read = true;
+         try {
+            for (int length; (length = fis.read(m_Window)) >= 0; ) {
+               count(m_Window, length);
+            }
+         } catch (IOException e) {
+            Log.err("Failed to read \"" + f.getPath() + '"');
+            read = false;
+         }
+         try {
+            fis.close();
+         } catch (IOException e) {
+            Log.err("Failed to close \"" + f.getPath() + '"');
+         }
+         finish(f);
+         return read;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Forgets the previous file.
+      void start() {
+         if (m_CharCounts != null) {
+            m_CharCounts.restart();
+         } else {
+            m_CodePointCounts.restart();
+            m_Utf8.restart();
+         }
+         if (m_NGramCounts != null) {
+            m_NGramCounts.restart();
+         }
+         if (m_NGrams != null) {
+            m_NGrams.restart();
+         }
+         m_IgnoredSome = false;
+         Arrays.fill(m_Ignored, false);
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Counts the next length bytes of the file started. The CrLf,
+      // repeat, ngram and decoder state is held by the counts so it
+      // carries from one call to the next.
+      void count(byte[] bytes, int length) {
+         if (m_Utf8 != null) {
+            countUtf8(bytes, length);
+            return;
+         }
+         for (int i = 0; i < length; ++i) {
+            int cin = bytes[i] & 0xFF;
+            if (cin >= 128) {
+               m_IgnoredSome = true;
+               m_Ignored[cin - 128] = true;
+               continue;
+            }
+            m_CharCounts.nextChar((char)cin);
+            if (m_NGramCounts != null) {
+               m_NGramCounts.nextCodePoint(cin);
+            }
+            if (m_NGrams != null) {
+               m_NGrams.nextChar((char)cin);
+            }
+         }
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Logs what f held that was not counted.
+      void finish(File f) {
+         if (m_IgnoredSome) {
+            String ig = "";
+            for (int i = 0; i < m_Ignored.length; ++i) {
+               if (m_Ignored[i]) {
+                  ig += String.format(" 0x%x", i + 128);
+               }
+            }
+            Log.log("Count ignored the following bytes in " + f.getName() + ':' + ig);
+         }
+         if (m_Utf8 != null && m_Utf8.getMalformed() > 0) {
+            Log.log(String.format("Count ignored %d malformed UTF-8 sequences in %s", m_Utf8.getMalformed(), f.getName()));
+         }
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // As count() but decoding, with the decoder state carried from
+      // one call to the next too.
+      private void countUtf8(byte[] bytes, int length) {
+         for (int i = 0; i < length; ++i) {
+            int cp = m_Utf8.next(bytes[i]);
+            if (cp == Utf8.sm_NONE) {
+               continue;
+            }
+            m_CodePointCounts.nextCodePoint(cp);
+            if (m_NGramCounts != null) {
+               m_NGramCounts.nextCodePoint(cp);
+            }
+            if (m_NGrams != null) {
+               if (cp <= Character.MAX_VALUE) {
+                  m_NGrams.nextChar((char)cp);
+               } else {
+                  m_NGrams.nextChar(Character.highSurrogate(cp));
+                  m_NGrams.nextChar(Character.lowSurrogate(cp));
+               }
+            }
+         }
+      }
+
+      // Data /////////////////////////////////////////////////////////////////
+      private final CharCounts m_CharCounts;
+      private final CodePointCounts m_CodePointCounts;
+      private final NGramCounts m_NGramCounts;
+      private final NGrams m_NGrams;
+      private final Utf8 m_Utf8;
+      private final boolean[] m_Ignored = new boolean[128];
+      private boolean m_IgnoredSome;
+      private byte[] m_Window;
+      private Counter m_Apart;
+   }
+
    // Data ////////////////////////////////////////////////////////////////////
+   static final int sm_WINDOW_SIZE = 1 << 16;
+   private static final int sm_SNAPSHOT_MAGIC = 0x54434e53; // "TCNS"
+   private static final int sm_SNAPSHOT_VERSION = 1;
    private static int sm_PAGE_WIDTH = 78;
    private CharCounts m_CharCounts;
+   private CodePointCounts m_CodePointCounts;
    private NGrams m_NGrams;
+   private Counter m_Counter;
    private File m_File;
    private SharedIndex m_Index;
    private int m_LowestCount;
    private int m_HighestCount;
    private boolean m_ShowBigrams;
+   private boolean m_Utf8;
+   private int m_NGramOrder;
+   private NGramCounts m_NGramCounts;
+   private File m_CacheFile;
 }
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2015 Pushkar Piggott
+ *
+ * CountsCache.java
+ *
+ * The counts of each file counted, keyed by the file's path, size and
+ * modification time, so a recount need only count the files that
+ * have changed since.
+ * Saved as a gzipped binary file: a header holding the counting
+ * options, followed by the path, size, modification time and counts
+ * of each file.
+ */
+package pkp.chars;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import pkp.io.Io;
+import pkp.util.Log;
+
+////////////////////////////////////////////////////////////////////////////////
+class CountsCache {
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Reads f if it exists and was saved with the same signature.
+   CountsCache(File f, String signature) {
+      m_File = f;
+      m_Signature = signature;
+      m_Entries = new HashMap<String, Entry>();
+      read();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns the counts cached for f, or null if f has changed since.
+   synchronized byte[] get(File f) {
+      Entry e = m_Entries.get(f.getAbsolutePath());
+      if (e == null || !e.isCurrent(f)) {
+         return null;
+      }
+      return e.m_Counts;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // size and modified are read before f is counted.
+   synchronized void put(File f, long size, long modified, byte[] counts) {
+      m_Entries.put(f.getAbsolutePath(), new Entry(size, modified, counts));
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Saves the files that are unchanged, including any not counted
+   // this time.
+   synchronized void write() {
+      File tmp = new File(m_File.getPath() + ".tmp");
+      try {
+         DataOutputStream out = new DataOutputStream(
+                                   new BufferedOutputStream(
+                                      new GZIPOutputStream(
+                                         new FileOutputStream(tmp))));
+         out.writeInt(sm_MAGIC);
+         out.writeInt(sm_VERSION);
+         out.writeUTF(m_Signature);
+         for (Iterator<Map.Entry<String, Entry>> it = m_Entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> me = it.next();
+            if (!me.getValue().isCurrent(new File(me.getKey()))) {
+               it.remove();
+            }
+         }
+         Io.writeVarInt(out, m_Entries.size());
+         for (Map.Entry<String, Entry> me : m_Entries.entrySet()) {
+            Entry e = me.getValue();
+            out.writeUTF(me.getKey());
+            Io.writeVarLong(out, e.m_Size);
+            Io.writeVarLong(out, e.m_Modified);
+            Io.writeVarInt(out, e.m_Counts.length);
+            out.write(e.m_Counts);
+         }
+         out.close();
+         Files.move(tmp.toPath(), m_File.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+         Log.warn("Failed to save the counts cache \"" + m_File.getPath() + "\": " + e);
+         tmp.delete();
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Writes the nonzero counts as index gap and count pairs.
+   static void writeCounts(DataOutput out, int[] counts) throws IOException {
+      int nonZero = 0;
+      for (int i = 0; i < counts.length; ++i) {
+         if (counts[i] != 0) {
+            ++nonZero;
+         }
+      }
+      Io.writeVarInt(out, nonZero);
+      int prev = -1;
+      for (int i = 0; i < counts.length; ++i) {
+         if (counts[i] != 0) {
+            Io.writeVarInt(out, i - prev - 1);
+            Io.writeVarInt(out, counts[i]);
+            prev = i;
+         }
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the counts written by writeCounts().
+   static void readCounts(DataInput in, int[] counts) throws IOException {
+      int nonZero = Io.readVarInt(in);
+      int i = -1;
+      for (int n = 0; n < nonZero; ++n) {
+         i += Io.readVarInt(in) + 1;
+         if (i < 0 || i >= counts.length) {
+            throw new IOException("Count index out of range");
+         }
+         counts[i] += Io.readVarInt(in);
+      }
+   }
+
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void read() {
+      if (!m_File.exists()) {
+         return;
+      }
+      DataInputStream in = null;
+      try {
+         in = new DataInputStream(
+                 new BufferedInputStream(
+                    new GZIPInputStream(
+                       new FileInputStream(m_File))));
+         if (in.readInt() != sm_MAGIC
+          || in.readInt() != sm_VERSION
+          || !m_Signature.equals(in.readUTF())) {
+            Log.log("Ignoring the counts cache \"" + m_File.getPath() + "\", it was saved with different options.");
+            in.close();
+            return;
+         }
+         int size = Io.readVarInt(in);
+         for (int i = 0; i < size; ++i) {
+            String path = in.readUTF();
+            long fileSize = Io.readVarLong(in);
+            long modified = Io.readVarLong(in);
+            byte[] counts = new byte[Io.readVarInt(in)];
+            in.readFully(counts);
+            m_Entries.put(path, new Entry(fileSize, modified, counts));
+         }
+         // reading the end checks the CRC
+         if (in.read() != -1) {
+            throw new IOException("Unexpected data at end");
+         }
+         in.close();
+      } catch (IOException e) {
+         Log.log("Ignoring the counts cache \"" + m_File.getPath() + "\": " + e);
+         m_Entries.clear();
+         try {
+            if (in != null) {
+               in.close();
+            }
+         } catch (IOException ce) {}
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static class Entry {
+
+      /////////////////////////////////////////////////////////////////////////
+      Entry(long size, long modified, byte[] counts) {
+         m_Size = size;
+         m_Modified = modified;
+         m_Counts = counts;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      boolean isCurrent(File f) {
+         return f.length() == m_Size
+             && f.lastModified() == m_Modified
+             && f.isFile();
+      }
+
+      // Data /////////////////////////////////////////////////////////////////
+      private final long m_Size;
+      private final long m_Modified;
+      private final byte[] m_Counts;
+   }
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private static final int sm_MAGIC = 0x54434e43; // "TCNC"
+   private static final int sm_VERSION = 1;
+   private final File m_File;
+   private final String m_Signature;
+   private final HashMap<String, Entry> m_Entries;
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2015 Pushkar Piggott
+ *
+ * HashCounts.java
+ *
+ * Counts keyed by long in an open addressed hash table.
+ * Entries are numbered in the order their keys were first added
+ * so they can be indexed like the dense count arrays.
+ */
+package pkp.chars;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import pkp.io.Io;
+
+////////////////////////////////////////////////////////////////////////////////
+class HashCounts {
+
+   ////////////////////////////////////////////////////////////////////////////
+   HashCounts() {
+      this(64);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   HashCounts(int capacity) {
+      int slots = 16;
+      while (slots < capacity * 2) {
+         slots <<= 1;
+      }
+      m_Slots = new int[slots];
+      m_Keys = new long[slots / 2];
+      m_Counts = new int[slots / 2];
+      m_Size = 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   int getSize() {
+      return m_Size;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   long getKey(int i) {
+      return m_Keys[i];
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   int getCount(int i) {
+      return m_Counts[i];
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns the index of key or -1.
+   int find(long key) {
+      int mask = m_Slots.length - 1;
+      for (int s = hash(key) & mask; m_Slots[s] != 0; s = (s + 1) & mask) {
+         if (m_Keys[m_Slots[s] - 1] == key) {
+            return m_Slots[s] - 1;
+         }
+      }
+      return -1;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   int get(long key) {
+      int i = find(key);
+      return i < 0 ? 0 : m_Counts[i];
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void add(long key) {
+      add(key, 1);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void add(long key, int count) {
+      int mask = m_Slots.length - 1;
+      int s = hash(key) & mask;
+      for (; m_Slots[s] != 0; s = (s + 1) & mask) {
+         if (m_Keys[m_Slots[s] - 1] == key) {
+            m_Counts[m_Slots[s] - 1] += count;
+            return;
+         }
+      }
+      if (m_Size == m_Keys.length) {
+         grow();
+         add(key, count);
+         return;
+      }
+      m_Keys[m_Size] = key;
+      m_Counts[m_Size] = count;
+      ++m_Size;
+      m_Slots[s] = m_Size;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void add(HashCounts other) {
+      for (int i = 0; i < other.m_Size; ++i) {
+         add(other.m_Keys[i], other.m_Counts[i]);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void write(DataOutput out) throws IOException {
+      Io.writeVarInt(out, m_Size);
+      for (int i = 0; i < m_Size; ++i) {
+         Io.writeVarLong(out, m_Keys[i]);
+         Io.writeVarInt(out, m_Counts[i]);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the counts written by write().
+   void read(DataInput in) throws IOException {
+      int size = Io.readVarInt(in);
+      for (int i = 0; i < size; ++i) {
+         long key = Io.readVarLong(in);
+         add(key, Io.readVarInt(in));
+      }
+   }
+
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int)(h ^ h >>> 32);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Keep the table at most half full.
+   private void grow() {
+      int slots = m_Slots.length * 2;
+      m_Keys = Arrays.copyOf(m_Keys, slots / 2);
+      m_Counts = Arrays.copyOf(m_Counts, slots / 2);
+      m_Slots = new int[slots];
+      int mask = slots - 1;
+      for (int i = 0; i < m_Size; ++i) {
+         int s = hash(m_Keys[i]) & mask;
+         while (m_Slots[s] != 0) {
+            s = (s + 1) & mask;
+         }
+         m_Slots[s] = i + 1;
+      }
+   }
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private int[] m_Slots;
+   private long[] m_Keys;
+   private int[] m_Counts;
+   private int m_Size;
+}
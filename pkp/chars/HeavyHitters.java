@@ -0,0 +1,381 @@
+/**
+ * Copyright 2015 Pushkar Piggott
+ *
+ * HeavyHitters.java
+ *
+ * Approximate counts of the most frequent keys in bounded memory, using
+ * the Space-Saving algorithm: a fixed number of keys is counted and a new
+ * key replaces the least counted one, inheriting its count as the error.
+ * So each count is at most its error over the true count, and any key
+ * not counted occurred at most getMinCount() times.
+ * An optional Count-Min sketch keeps keys that are likely rare from
+ * replacing better established ones.
+ * Entries are numbered by slot so they can be indexed like the other
+ * counts.
+ */
+package pkp.chars;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import pkp.io.Io;
+
+////////////////////////////////////////////////////////////////////////////////
+class HeavyHitters {
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Counts size keys, with a sketch of sketchKb kilobytes, or none if 0.
+   HeavyHitters(int size, int sketchKb) {
+      m_CAPACITY = Math.max(1, size);
+      m_Keys = new long[m_CAPACITY];
+      m_Counts = new int[m_CAPACITY];
+      m_Errors = new int[m_CAPACITY];
+      m_Heap = new int[m_CAPACITY];
+      m_HeapPos = new int[m_CAPACITY];
+      int slots = 16;
+      while (slots < m_CAPACITY * 2) {
+         slots <<= 1;
+      }
+      m_Slots = new int[slots];
+      m_Sketch = sketchKb > 0 ? new CountMin(sketchKb) : null;
+      m_Size = 0;
+      m_Overflowed = false;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Forgets every key, keeping the memory to count more.
+   void reset() {
+      Arrays.fill(m_Keys, 0, m_Size, 0L);
+      Arrays.fill(m_Counts, 0, m_Size, 0);
+      Arrays.fill(m_Errors, 0, m_Size, 0);
+      Arrays.fill(m_Slots, 0);
+      if (m_Sketch != null) {
+         m_Sketch.reset();
+      }
+      m_Size = 0;
+      m_Overflowed = false;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   int getSize() {
+      return m_Size;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   long getKey(int i) {
+      return m_Keys[i];
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // At least the true count.
+   int getCount(int i) {
+      return m_Counts[i];
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The most the count can be over the true count.
+   int getError(int i) {
+      return m_Errors[i];
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The most times a key that is not counted can have occurred.
+   int getMinCount() {
+      return m_Overflowed ? m_Counts[m_Heap[0]] : 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void add(long key) {
+      int estimate = m_Sketch == null ? 0 : m_Sketch.add(key);
+      int e = find(key);
+      if (e >= 0) {
+         ++m_Counts[e];
+         sink(m_HeapPos[e]);
+         return;
+      }
+      if (m_Size < m_CAPACITY) {
+         e = m_Size;
+         ++m_Size;
+         m_Keys[e] = key;
+         m_Counts[e] = 1;
+         m_Errors[e] = 0;
+         insertSlot(e);
+         m_Heap[e] = e;
+         m_HeapPos[e] = e;
+         swim(e);
+         return;
+      }
+      m_Overflowed = true;
+      e = m_Heap[0];
+      int min = m_Counts[e];
+      if (m_Sketch != null && estimate <= min) {
+         // occurred no more than the least counted key
+         return;
+      }
+      removeSlot(e);
+      m_Keys[e] = key;
+      insertSlot(e);
+      if (m_Sketch != null) {
+         m_Counts[e] = estimate;
+         m_Errors[e] = estimate - 1;
+      } else {
+         m_Counts[e] = min + 1;
+         m_Errors[e] = min;
+      }
+      sink(0);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Merges other's counts into these, keeping the bounds: a key counted
+   // by only one of the two may have occurred up to the other's minimum
+   // count in the other.
+   void add(HeavyHitters other) {
+      int thisMin = getMinCount();
+      int otherMin = other.getMinCount();
+      int size = m_Size;
+      long[] keys = Arrays.copyOf(m_Keys, m_Size + other.m_Size);
+      int[] counts = Arrays.copyOf(m_Counts, keys.length);
+      int[] errors = Arrays.copyOf(m_Errors, keys.length);
+      boolean[] matched = new boolean[m_Size];
+      for (int i = 0; i < other.m_Size; ++i) {
+         int e = find(other.m_Keys[i]);
+         if (e >= 0) {
+            counts[e] += other.m_Counts[i];
+            errors[e] += other.m_Errors[i];
+            matched[e] = true;
+         } else {
+            keys[size] = other.m_Keys[i];
+            counts[size] = other.m_Counts[i] + thisMin;
+            errors[size] = other.m_Errors[i] + thisMin;
+            ++size;
+         }
+      }
+      for (int e = 0; e < m_Size; ++e) {
+         if (!matched[e]) {
+            counts[e] += otherMin;
+            errors[e] += otherMin;
+         }
+      }
+      m_Overflowed |= other.m_Overflowed || size > m_CAPACITY;
+      rebuild(keys, counts, errors, size);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The sketch is only used while counting so is not written.
+   void write(DataOutput out) throws IOException {
+      out.writeBoolean(m_Overflowed);
+      Io.writeVarInt(out, m_Size);
+      for (int i = 0; i < m_Size; ++i) {
+         Io.writeVarLong(out, m_Keys[i]);
+         Io.writeVarInt(out, m_Counts[i]);
+         Io.writeVarInt(out, m_Errors[i]);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Merges in the counts written by write().
+   void read(DataInput in) throws IOException {
+      HeavyHitters other = new HeavyHitters(m_CAPACITY, 0);
+      boolean overflowed = in.readBoolean();
+      int size = Io.readVarInt(in);
+      if (size < 0 || size > m_CAPACITY) {
+         throw new IOException("Too many heavy hitters");
+      }
+      long[] keys = new long[size];
+      int[] counts = new int[size];
+      int[] errors = new int[size];
+      for (int i = 0; i < size; ++i) {
+         keys[i] = Io.readVarLong(in);
+         counts[i] = Io.readVarInt(in);
+         errors[i] = Io.readVarInt(in);
+      }
+      other.m_Overflowed = overflowed;
+      other.rebuild(keys, counts, errors, size);
+      add(other);
+   }
+
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Keeps the m_CAPACITY highest counts of the first size entries.
+   private void rebuild(long[] keys, int[] counts, int[] errors, int size) {
+      int threshold = Integer.MIN_VALUE;
+      int atThreshold = m_CAPACITY;
+      if (size > m_CAPACITY) {
+         int[] sorted = Arrays.copyOf(counts, size);
+         Arrays.sort(sorted);
+         threshold = sorted[size - m_CAPACITY];
+         // how many equal to the threshold fit
+         atThreshold = 0;
+         for (int i = size - m_CAPACITY; i < size && sorted[i] == threshold; ++i) {
+            ++atThreshold;
+         }
+      }
+      Arrays.fill(m_Slots, 0);
+      m_Size = 0;
+      for (int i = 0; i < size; ++i) {
+         if (counts[i] < threshold) {
+            continue;
+         }
+         if (counts[i] == threshold) {
+            if (atThreshold == 0) {
+               continue;
+            }
+            --atThreshold;
+         }
+         m_Keys[m_Size] = keys[i];
+         m_Counts[m_Size] = counts[i];
+         m_Errors[m_Size] = errors[i];
+         insertSlot(m_Size);
+         m_Heap[m_Size] = m_Size;
+         m_HeapPos[m_Size] = m_Size;
+         ++m_Size;
+      }
+      for (int h = m_Size / 2 - 1; h >= 0; --h) {
+         sink(h);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int)(h ^ h >>> 32);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns the entry of key or -1.
+   private int find(long key) {
+      int mask = m_Slots.length - 1;
+      for (int s = hash(key) & mask; m_Slots[s] != 0; s = (s + 1) & mask) {
+         if (m_Keys[m_Slots[s] - 1] == key) {
+            return m_Slots[s] - 1;
+         }
+      }
+      return -1;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void insertSlot(int e) {
+      int mask = m_Slots.length - 1;
+      int s = hash(m_Keys[e]) & mask;
+      while (m_Slots[s] != 0) {
+         s = (s + 1) & mask;
+      }
+      m_Slots[s] = e + 1;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Shifts back any following entries that would no longer be found.
+   private void removeSlot(int e) {
+      int mask = m_Slots.length - 1;
+      int s = hash(m_Keys[e]) & mask;
+      while (m_Slots[s] != e + 1) {
+         s = (s + 1) & mask;
+      }
+      for (int next = (s + 1) & mask; m_Slots[next] != 0; next = (next + 1) & mask) {
+         int home = hash(m_Keys[m_Slots[next] - 1]) & mask;
+         // move next into the gap if its home is not between the gap and next
+         if (((next - home) & mask) >= ((next - s) & mask)) {
+            m_Slots[s] = m_Slots[next];
+            s = next;
+         }
+      }
+      m_Slots[s] = 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void swim(int h) {
+      while (h > 0) {
+         int parent = (h - 1) / 2;
+         if (m_Counts[m_Heap[parent]] <= m_Counts[m_Heap[h]]) {
+            return;
+         }
+         swap(h, parent);
+         h = parent;
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void sink(int h) {
+      for (;;) {
+         int least = h;
+         int child = 2 * h + 1;
+         if (child < m_Size && m_Counts[m_Heap[child]] < m_Counts[m_Heap[least]]) {
+            least = child;
+         }
+         ++child;
+         if (child < m_Size && m_Counts[m_Heap[child]] < m_Counts[m_Heap[least]]) {
+            least = child;
+         }
+         if (least == h) {
+            return;
+         }
+         swap(h, least);
+         h = least;
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void swap(int h1, int h2) {
+      int e = m_Heap[h1];
+      m_Heap[h1] = m_Heap[h2];
+      m_Heap[h2] = e;
+      m_HeapPos[m_Heap[h1]] = h1;
+      m_HeapPos[m_Heap[h2]] = h2;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Over-estimates counts in fixed memory: each key is counted in one
+   // cell of each row, and its estimate is the least of those cells.
+   private static class CountMin {
+
+      /////////////////////////////////////////////////////////////////////////
+      CountMin(int kb) {
+         int width = 1;
+         while (width * 2 * sm_DEPTH * 4 <= kb * 1024) {
+            width *= 2;
+         }
+         m_Cells = new int[sm_DEPTH * width];
+         m_Mask = width - 1;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Returns the new estimate of key's count.
+      int add(long key) {
+         int min = Integer.MAX_VALUE;
+         for (int row = 0; row < sm_DEPTH; ++row) {
+            long h = (key ^ sm_SEEDS[row]) * 0x9E3779B97F4A7C15L;
+            int cell = row * (m_Mask + 1) + ((int)(h ^ h >>> 29) & m_Mask);
+            min = Math.min(min, ++m_Cells[cell]);
+         }
+         return min;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      void reset() {
+         Arrays.fill(m_Cells, 0);
+      }
+
+      // Data /////////////////////////////////////////////////////////////////
+      private static final int sm_DEPTH = 4;
+      private static final long[] sm_SEEDS = {
+         0x2545F4914F6CDD1DL, 0x61C8864680B583EBL,
+         0x165667B19E3779F9L, 0x27D4EB2F165667C5L
+      };
+      private final int[] m_Cells;
+      private final int m_Mask;
+   }
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private final int m_CAPACITY;
+   private final long[] m_Keys;
+   private final int[] m_Counts;
+   private final int[] m_Errors;
+   private final int[] m_Heap;
+   private final int[] m_HeapPos;
+   private final int[] m_Slots;
+   private final CountMin m_Sketch;
+   private int m_Size;
+   private boolean m_Overflowed;
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2015 Pushkar Piggott
+ *
+ * NGramCounts.java
+ */
+package pkp.chars;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import pkp.io.CrLf;
+import pkp.lookup.SharedIndexableInts;
+import pkp.util.Pref;
+import pkp.util.Log;
+
+////////////////////////////////////////////////////////////////////////////////
+// Counts every sequence of 3 up to order characters, so frequent sequences
+// are found without listing them in an ngrams file.
+// Each sequence is packed into a long, a char to every 7 bits (21 for
+// code points), and counted in a hash table. Chars are never 0 so
+// sequences of different lengths never share a key.
+// Code points take 16 bits when 21 are too many for the order, so
+// sequences of 4 are counted, and any beyond U+FFFF end a sequence.
+// If #.count.ngrams.top is set only about that many of the most frequent
+// sequences are counted, in memory that does not grow with the text.
+class NGramCounts implements SharedIndexableInts {
+
+   ////////////////////////////////////////////////////////////////////////////
+   static final int sm_MIN_ORDER = 3;
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Counts code points if codePoints, otherwise ASCII.
+   NGramCounts(int order, boolean codePoints) {
+      m_MAX_REPEAT = Pref.getInt("#.count.repeats.max", 2);
+      if (!codePoints) {
+         m_BITS = sm_ASCII_BITS;
+      } else if (order > Long.SIZE / sm_CODE_POINT_BITS) {
+         m_BITS = sm_BMP_BITS;
+      } else {
+         m_BITS = sm_CODE_POINT_BITS;
+      }
+      int maxOrder = Long.SIZE / m_BITS;
+      if (order > maxOrder) {
+         Log.log(String.format("Ngrams of more than %d %s cannot be counted, counting up to %d.",
+                                maxOrder, codePoints ? "characters" : "ASCII characters", maxOrder));
+         order = maxOrder;
+      }
+      m_ORDER = Math.max(order, sm_MIN_ORDER);
+      m_CodePoints = codePoints;
+      m_TOP = Math.max(0, Pref.getInt("#.count.ngrams.top", 0));
+      m_SKETCH_KB = Math.max(0, Pref.getInt("#.count.ngrams.sketch.kb", 256));
+      clear();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Empty counts of the same order.
+   NGramCounts(NGramCounts other) {
+      this(other.m_ORDER, other.m_CodePoints);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   int getOrder() {
+      return m_ORDER;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Forget the previous characters, eg at the start of a file.
+   void restart() {
+      m_CrLf = new CrLf();
+      m_Prev = 0;
+      m_Repeat = 0;
+      m_Sequence = 0;
+      m_Length = 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void add(NGramCounts other) {
+      if (m_Top != null) {
+         m_Top.add(other.m_Top);
+      } else {
+         m_Counts.add(other.m_Counts);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void clear() {
+      if (m_TOP > 0) {
+         if (m_Top == null) {
+            m_Top = new HeavyHitters(m_TOP, m_SKETCH_KB);
+         } else {
+            m_Top.reset();
+         }
+      } else {
+         m_Counts = new HashCounts();
+      }
+      restart();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void write(DataOutput out) throws IOException {
+      if (m_Top != null) {
+         m_Top.write(out);
+      } else {
+         m_Counts.write(out);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the counts written by write().
+   void read(DataInput in) throws IOException {
+      if (m_Top != null) {
+         m_Top.read(in);
+      } else {
+         m_Counts.read(in);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Whether only the most frequent are counted.
+   boolean isTop() {
+      return m_Top != null;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // When isTop(), the most that a count is over the true count.
+   int getError(int i) {
+      return m_Top != null ? m_Top.getError(i) : 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // When isTop(), the most times a sequence not counted occurred.
+   int getMaxUncounted() {
+      return m_Top != null ? m_Top.getMinCount() : 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override // SharedIndexableInts
+   public int getSize() {
+      return m_Top != null ? m_Top.getSize() : m_Counts.getSize();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override // SharedIndexableInts
+   public int getCount(int i) {
+      return m_Top != null ? m_Top.getCount(i) : m_Counts.getCount(i);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override // SharedIndexableInts
+   public String getLabel(int i) {
+      long sequence = m_Top != null ? m_Top.getKey(i) : m_Counts.getKey(i);
+      long mask = (1L << m_BITS) - 1;
+      int length = 0;
+      while (length < m_ORDER && (sequence >>> (length * m_BITS)) != 0) {
+         ++length;
+      }
+      String label = "";
+      for (int j = length - 1; j >= 0; --j) {
+         label += CodePointCounts.toLabel((int)((sequence >>> (j * m_BITS)) & mask));
+      }
+      return label;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The longest label of the counts in range.
+   int findMaxLength(int min, int max) {
+      int maxLen = 0;
+      for (int i = 0; i < getSize(); ++i) {
+         if (getCount(i) >= min
+          && getCount(i) <= max) {
+            maxLen = Math.max(maxLen, getLabel(i).length());
+         }
+      }
+      return maxLen;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Filters cp as CharCounts.nextChar() does, so the sequences
+   // are made of the chars counted.
+   void nextCodePoint(int cp) {
+      int prev = m_Prev;
+      if (cp <= Character.MAX_VALUE) {
+         char c = m_CrLf.next((char)cp);
+         if (c == '\0') {
+            return;
+         }
+         m_Prev = cp;
+         cp = c;
+      } else {
+         // never \r or \n
+         m_CrLf.next(Character.highSurrogate(cp));
+         m_Prev = cp;
+      }
+      if (cp != prev) {
+         m_Repeat = 0;
+      } else {
+         ++m_Repeat;
+         if (m_Repeat >= m_MAX_REPEAT) {
+            return;
+         }
+      }
+      if (cp >>> m_BITS != 0) {
+         m_Sequence = 0;
+         m_Length = 0;
+         return;
+      }
+      m_Sequence = m_Sequence << m_BITS | cp;
+      if (m_Length < m_ORDER) {
+         ++m_Length;
+      }
+      for (int n = sm_MIN_ORDER; n <= m_Length; ++n) {
+         // a shift of 64 is a shift of 0
+         long sequence = n * m_BITS < Long.SIZE
+                       ? m_Sequence & ((1L << (n * m_BITS)) - 1)
+                       : m_Sequence;
+         if (m_Top != null) {
+            m_Top.add(sequence);
+         } else {
+            m_Counts.add(sequence);
+         }
+      }
+   }
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private static final int sm_ASCII_BITS = 7;
+   private static final int sm_CODE_POINT_BITS = 21;
+   private static final int sm_BMP_BITS = 16;
+   private static int m_MAX_REPEAT;
+   private final int m_BITS;
+   private final int m_ORDER;
+   private final boolean m_CodePoints;
+   private final int m_TOP;
+   private final int m_SKETCH_KB;
+   private HashCounts m_Counts;
+   private HeavyHitters m_Top;
+   private CrLf m_CrLf;
+   private int m_Prev;
+   private int m_Repeat;
+   private long m_Sequence;
+   private int m_Length;
+}
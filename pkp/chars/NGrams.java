@@ -6,16 +6,17 @@
 package pkp.chars;
 
 import java.io.File;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.net.URL;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import pkp.twiddle.KeyPress;
 import pkp.twiddle.KeyPressList;
-import pkp.lookup.LookupSet;
-import pkp.lookup.LookupSetBuilder;
 import pkp.lookup.LookupTable;
 import pkp.lookup.LookupTableBuilder;
-import pkp.lookup.LookupBuilder.Duplicates;
 import pkp.lookup.SharedIndexableInts;
 import pkp.io.LineReader;
 import pkp.io.Io;
@@ -26,42 +27,75 @@ import pkp.util.Log;
 ////////////////////////////////////////////////////////////////////////////////
 // Finds ngrams (read from a file) in text supplied char by char
 // to nextChar().
+// The ngrams are compiled into an Aho-Corasick automaton so each char
+// costs one table transition, however many ngrams are in progress.
 class NGrams implements SharedIndexableInts {
    
    ////////////////////////////////////////////////////////////////////////////
    NGrams(File f) {
-      m_CurrentIndex = new ArrayList<Integer>();
-      m_Current = new ArrayList<NGram>();
       m_NGRAMS = read(f);
-      m_Counts = new ArrayList<Integer>(m_NGRAMS.size());
-      for (int i = 0; i < m_NGRAMS.size(); ++i) {
-         m_Counts.add(0);
-      }
-      // Create lookup tables of
-      // 1/ all characters in the ngrams (relevancy set) and
-      // 2/ all ngram initial characters (lookup ngram).
-      LookupSetBuilder lsbr = new LookupSetBuilder(0x20, 0x7f);
-      lsbr.setDuplicates(Duplicates.IGNORE);
+      m_Counts = new int[m_NGRAMS.size()];
+      // Number the distinct characters in the ngrams (the relevancy set).
+      // Irrelevant characters map to no symbol and reset the automaton.
+      char[] alphabet = createAlphabet(m_NGRAMS);
       LookupTableBuilder ltbs = new LookupTableBuilder(0x20, 0x7f);
-      ltbs.setDuplicates(Duplicates.STORE);
-      for (int i = 0; i < m_NGRAMS.size(); ++i) {
-         String chars = m_NGRAMS.get(i);
-         for (int j = 0; j < chars.length(); ++j) {
-//System.out.printf("a>%c<%n", chars.charAt(j));
-            lsbr.add((int)chars.charAt(j));
-         }
-//System.out.printf("i>%c< %d%n", chars.charAt(0), i);
-         ltbs.add((int)chars.charAt(0), i + 1);
+      for (int i = 0; i < alphabet.length; ++i) {
+         ltbs.add((int)alphabet[i], i);
       }
-      m_RELEVANT = lsbr.build();
-      m_START = ltbs.build();
-      m_CrLf = new CrLf();
+      m_SYMBOLS = ltbs.build();
+      m_WIDTH = Math.max(1, alphabet.length);
+      build(alphabet);
+      restart();
+   }
+   
+   ////////////////////////////////////////////////////////////////////////////
+   // Shares the automaton of other, with zero counts.
+   NGrams(NGrams other) {
+      m_NGRAMS = other.m_NGRAMS;
+      m_SYMBOLS = other.m_SYMBOLS;
+      m_WIDTH = other.m_WIDTH;
+      m_GOTO = other.m_GOTO;
+      m_OUTPUT_START = other.m_OUTPUT_START;
+      m_OUTPUT = other.m_OUTPUT;
+      m_Counts = new int[other.m_Counts.length];
+      restart();
    }
    
+   ////////////////////////////////////////////////////////////////////////////
+   // Abandon any ngrams in progress, eg at the start of a file.
+   void restart() {
+      m_State = 0;
+      m_CrLf = new CrLf();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void add(NGrams other) {
+      for (int i = 0; i < m_Counts.length; ++i) {
+         m_Counts[i] += other.m_Counts[i];
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void clear() {
+      Arrays.fill(m_Counts, 0);
+      restart();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   void write(DataOutput out) throws IOException {
+      CountsCache.writeCounts(out, m_Counts);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the counts written by write().
+   void read(DataInput in) throws IOException {
+      CountsCache.readCounts(in, m_Counts);
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    @Override // SharedIndexableInts
    public int getSize() {
-      return m_Counts.size();
+      return m_Counts.length;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -73,8 +107,7 @@ class NGrams implements SharedIndexableInts {
    ////////////////////////////////////////////////////////////////////////////
    @Override // SharedIndexableInts
    public int getCount(int i) {
-//System.out.printf("getCount(%d) %d%n", i, m_Counts.get(i));
-      return m_Counts.get(i);
+      return m_Counts[i];
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -83,48 +116,17 @@ class NGrams implements SharedIndexableInts {
       if (c == '\0') {
          return;
       }
-      if (!m_RELEVANT.is(c)) {
+      int symbol = m_SYMBOLS.get(c);
+      if (symbol == LookupTable.sm_NO_VALUE) {
          // irrelevant new char invalidates any current ngrams
-         if (m_Current.size() > 0) {
-            m_Current.clear();
-            m_CurrentIndex.clear();
-         }
+         m_State = 0;
          return;
       }
-// latest character is relevant, how many ngrams in process
-//System.out.printf("[0x%x]%c[size %d%n", (int)c, c, m_CurrentIndex.size());
-      for (int i = m_Current.size() - 1; i >= 0; --i) {
-         if (!m_Current.get(i).nextChar(c)) {
-// mismatch - remove it
-//System.out.printf(">%c<->%s<%n", c, m_Current.get(i).getChars());
-            m_Current.remove(i);
-            m_CurrentIndex.remove(i);
-         } else if (m_Current.get(i).matched()) {
-// match complete
-            m_Counts.set(m_CurrentIndex.get(i), m_Counts.get(m_CurrentIndex.get(i)) + 1);
-//System.out.printf(">%c<!>%s< x%d%n", c, m_Current.get(i).getChars(), m_Counts.get(m_CurrentIndex.get(i)));
-            m_Current.remove(i);
-            m_CurrentIndex.remove(i);
-         } else {
-//System.out.printf(">%c<+>%s<%n", c, m_Current.get(i).getChars());
-         }
+      m_State = m_GOTO[m_State * m_WIDTH + symbol];
+      // every ngram ending here, including those that are suffixes
+      for (int i = m_OUTPUT_START[m_State]; i < m_OUTPUT_START[m_State + 1]; ++i) {
+         ++m_Counts[m_OUTPUT[i]];
       }
-      int[] indexes = m_START.getAll((int)c, LookupTable.sm_NO_VALUE);
-      if (indexes == null) {
-//System.out.printf(">%c<", c);
-      } else {
-//System.out.printf("?>%c< indexes[0] %d ", c, indexes[0]);
-         for (int i = 1; i < indexes[0]; ++i) {
-//System.out.printf("i %d ix %d ", i, indexes[i]);
-            if (indexes[i] > 0) {
-               m_Current.add(new NGram(m_NGRAMS.get(indexes[i] - 1)));
-//System.out.printf("+>%s< ", m_NGRAMS.get(indexes[i] - 1));
-               m_CurrentIndex.add(indexes[i] - 1);
-            }
-         }
-      }
-//System.out.println();
-//System.out.printf("]size %d%n", m_CurrentIndex.size());
    }
    
    ////////////////////////////////////////////////////////////////////////////
@@ -133,8 +135,8 @@ class NGrams implements SharedIndexableInts {
       for (int i = 0; i < getSize(); ++i) {
          int len = Io.toEscape(m_NGRAMS.get(i)).length();
          if (len > maxLen
-          && m_Counts.get(i) >= min
-          && m_Counts.get(i) <= max) {
+          && m_Counts[i] >= min
+          && m_Counts[i] <= max) {
             maxLen = len;
          }
       }
@@ -143,6 +145,107 @@ class NGrams implements SharedIndexableInts {
    
    // Private /////////////////////////////////////////////////////////////////
    
+   ////////////////////////////////////////////////////////////////////////////
+   private static char[] createAlphabet(ArrayList<String> nGrams) {
+      int size = 0;
+      for (String ng : nGrams) {
+         size += ng.length();
+      }
+      char[] all = new char[size];
+      int next = 0;
+      for (String ng : nGrams) {
+         ng.getChars(0, ng.length(), all, next);
+         next += ng.length();
+      }
+      Arrays.sort(all);
+      int unique = 0;
+      for (int i = 0; i < all.length; ++i) {
+         if (unique == 0 || all[i] != all[unique - 1]) {
+            all[unique++] = all[i];
+         }
+      }
+      return Arrays.copyOf(all, unique);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Builds the trie, then the failure links breadth first, folding them
+   // into m_GOTO so that it is a complete transition table, and the
+   // outputs of each state, which include those of its failure state.
+   private void build(char[] alphabet) {
+      int maxStates = 1;
+      for (String ng : m_NGRAMS) {
+         maxStates += ng.length();
+      }
+      int[] go = new int[maxStates * m_WIDTH];
+      Arrays.fill(go, -1);
+      // ngrams ending at each state as linked lists
+      int[] ends = new int[maxStates];
+      Arrays.fill(ends, -1);
+      int[] nextEnd = new int[m_NGRAMS.size()];
+      int states = 1;
+      for (int i = 0; i < m_NGRAMS.size(); ++i) {
+         String ng = m_NGRAMS.get(i);
+         int state = 0;
+         for (int j = 0; j < ng.length(); ++j) {
+            int t = state * m_WIDTH + Arrays.binarySearch(alphabet, ng.charAt(j));
+            if (go[t] == -1) {
+               go[t] = states++;
+            }
+            state = go[t];
+         }
+         nextEnd[i] = ends[state];
+         ends[state] = i;
+      }
+      int[] fail = new int[states];
+      int[] order = new int[states];
+      int[] outputs = new int[states];
+      int head = 0;
+      int tail = 0;
+      for (int s = 0; s < m_WIDTH; ++s) {
+         if (go[s] == -1) {
+            go[s] = 0;
+         } else {
+            fail[go[s]] = 0;
+            order[tail++] = go[s];
+         }
+      }
+      while (head < tail) {
+         int state = order[head++];
+         for (int e = ends[state]; e != -1; e = nextEnd[e]) {
+            ++outputs[state];
+         }
+         outputs[state] += outputs[fail[state]];
+         for (int s = 0; s < m_WIDTH; ++s) {
+            int t = state * m_WIDTH + s;
+            int failTo = go[fail[state] * m_WIDTH + s];
+            if (go[t] == -1) {
+               go[t] = failTo;
+            } else {
+               fail[go[t]] = failTo;
+               order[tail++] = go[t];
+            }
+         }
+      }
+      m_GOTO = Arrays.copyOf(go, states * m_WIDTH);
+      m_OUTPUT_START = new int[states + 1];
+      for (int s = 0; s < states; ++s) {
+         m_OUTPUT_START[s + 1] = m_OUTPUT_START[s] + outputs[s];
+      }
+      m_OUTPUT = new int[m_OUTPUT_START[states]];
+      // failure states precede their dependents in breadth first order
+      for (int o = 0; o < tail; ++o) {
+         int state = order[o];
+         int next = m_OUTPUT_START[state];
+         for (int e = ends[state]; e != -1; e = nextEnd[e]) {
+            m_OUTPUT[next++] = e;
+         }
+         int f = fail[state];
+         for (int i = m_OUTPUT_START[f]; i < m_OUTPUT_START[f + 1]; ++i) {
+            m_OUTPUT[next++] = m_OUTPUT[i];
+         }
+      }
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    private static ArrayList<String> read(File f) {
       ArrayList<String> nGrams = new ArrayList<String>();
@@ -187,11 +290,13 @@ class NGrams implements SharedIndexableInts {
    
    // Data ////////////////////////////////////////////////////////////////////
    private final ArrayList<String> m_NGRAMS;
-   private final LookupSet m_RELEVANT;
-   private final LookupTable m_START;
-   private ArrayList<NGram> m_Current;
-   private ArrayList<Integer> m_CurrentIndex;
-   private ArrayList<Integer> m_Counts;
+   private final LookupTable m_SYMBOLS;
+   private final int m_WIDTH;
+   private int[] m_GOTO;
+   private int[] m_OUTPUT_START;
+   private int[] m_OUTPUT;
+   private int m_State;
+   private int[] m_Counts;
    private CrLf m_CrLf;
 
    // Main /////////////////////////////////////////////////////////////////////
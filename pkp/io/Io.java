@@ -7,6 +7,8 @@ package pkp.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.InputStream;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
@@ -286,6 +288,40 @@ public class Io {
       }
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Writes value 7 bits at a time, low bits first, so small values
+   // take a byte. Negative values take 10 bytes.
+   public static void writeVarLong(DataOutput out, long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+         out.writeByte((int)(value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      out.writeByte((int)value);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public static long readVarLong(DataInput in) throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+         int b = in.readByte();
+         value |= (long)(b & 0x7F) << shift;
+         if (b >= 0) {
+            return value;
+         }
+      }
+      throw new IOException("Malformed variable length number");
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public static void writeVarInt(DataOutput out, int value) throws IOException {
+      writeVarLong(out, value & 0xFFFFFFFFL);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public static int readVarInt(DataInput in) throws IOException {
+      return (int)readVarLong(in);
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public static List<String> split(String str, char c) {
       String ch = String.valueOf(c);
@@ -459,6 +495,32 @@ public class Io {
       }
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // As toIntWarnParse(value.subSequence(start, end).toString(), base, err),
+   // without copying unless it fails.
+   public static int toIntWarnParse(CharSequence value, int start, int end, int base, StringBuilder err) {
+      int i = start;
+      boolean neg = false;
+      if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+         neg = value.charAt(i) == '-';
+         ++i;
+      }
+      // as Integer.parseInt(), at least one digit and no overflow
+      long limit = neg ? -(long)Integer.MIN_VALUE : Integer.MAX_VALUE;
+      long parsed = 0;
+      boolean ok = i < end;
+      for (; ok && i < end; ++i) {
+         int digit = Character.digit(value.charAt(i), base);
+         parsed = parsed * base + digit;
+         ok = digit >= 0 && parsed <= limit;
+      }
+      if (!ok) {
+         Log.warn(err, "Failed to parse \"" + value.subSequence(start, end) + "\" to integer");
+         return sm_PARSE_FAILED;
+      }
+      return (int)(neg ? -parsed : parsed);
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public static int toInt(String value) {
       return toInt(value, null);
@@ -616,7 +678,14 @@ public class Io {
    ////////////////////////////////////////////////////////////////////////////
    // returns an interpretation of the first escaped character in the string
    public static int parseEscapeFirst(String str, StringBuilder err) {
-      CharIntPair cip = parseEscape1By1(str, err);
+      return parseEscapeFirst(str, 0, err);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // As parseEscapeFirst(str.subSequence(start, str.length()).toString(), err),
+   // without copying.
+   public static int parseEscapeFirst(CharSequence str, int start, StringBuilder err) {
+      CharIntPair cip = parseEscape1By1(str, start, err);
       if (cip == null) {
          return sm_PARSE_FAILED;
       }
@@ -626,7 +695,7 @@ public class Io {
    ////////////////////////////////////////////////////////////////////////////
    // returns an interpretation of the string representing one escaped character
    public static int parseEscape1(String str, StringBuilder err) {
-      CharIntPair cip = parseEscape1By1(str, err);
+      CharIntPair cip = parseEscape1By1(str, 0, err);
 //System.out.printf("%c (%d) %d%n", cip.m_Char, (int)cip.m_Char, cip.m_Int);
       if (cip == null) {
          return sm_PARSE_FAILED;
@@ -653,7 +722,7 @@ public class Io {
       int j = 0;
       CharIntPair cip = null;
       for (;;) {
-         cip = parseEscape1By1(str.substring(j), err);
+         cip = parseEscape1By1(str, j, err);
          if (cip == null) {
             if (err != null && err.length() != 0) {
                return null;
@@ -721,28 +790,28 @@ public class Io {
    }   
 
    ////////////////////////////////////////////////////////////////////////////
-   // return the character and the length of the string parsed.
-   private static CharIntPair parseEscape1By1(String str, StringBuilder err) {
-      if ("".equals(str)) {
+   // return the character at start and the length of the string parsed.
+   private static CharIntPair parseEscape1By1(CharSequence str, int start, StringBuilder err) {
+      if (start >= str.length()) {
          return null;
       }
-      char c = str.charAt(0);
+      char c = str.charAt(start);
       if (c != '\\') {
          return new CharIntPair(c, 1);
       }
-      if (str.length() == 1) {
+      if (start + 1 == str.length()) {
          Log.warn(err, "Unexpected '\\' at end of line");
          return null;
       }
-      char c1 = str.charAt(1);
+      char c1 = str.charAt(start + 1);
       if (c1 != 'x') {
          return new CharIntPair(escapedToChar(c1), 2);
       }
-      if (str.length() < 4) {
+      if (start + 4 > str.length()) {
          Log.warn(err, "Too few digits after '\\x' at end of line");
          return null;
       }
-      int c2 = toIntWarnParse(str.substring(2, 4), 16, err);
+      int c2 = toIntWarnParse(str, start + 2, start + 4, 16, err);
       if (c2 == sm_PARSE_FAILED) {
          return null;
       }
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016 Pushkar Piggott
+ *
+ * Utf8.java
+ */
+package pkp.io;
+
+///////////////////////////////////////////////////////////////////////////////
+// Decodes UTF-8 a byte at a time, so a buffer can be decoded in place
+// and a character can straddle two buffers.
+public class Utf8 {
+
+   ////////////////////////////////////////////////////////////////////////////
+   public static final int sm_NONE = -1;
+
+   ////////////////////////////////////////////////////////////////////////////
+   public Utf8() {
+      restart();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public void restart() {
+      m_Value = 0;
+      m_Needed = 0;
+      m_Minimum = 0;
+      m_Malformed = 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The number of malformed sequences skipped since restart().
+   public int getMalformed() {
+      return m_Malformed;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns the code point completed by b, or sm_NONE.
+   public int next(byte b) {
+      if (m_Needed == 0) {
+         if (b >= 0) {
+            return b;
+         }
+         return lead(b);
+      }
+      if ((b & 0xC0) != 0x80) {
+         // truncated, drop it and start again at b
+         ++m_Malformed;
+         m_Needed = 0;
+         return b >= 0 ? b : lead(b);
+      }
+      m_Value = m_Value << 6 | (b & 0x3F);
+      if (--m_Needed > 0) {
+         return sm_NONE;
+      }
+      if (m_Value < m_Minimum
+       || m_Value > Character.MAX_CODE_POINT
+       || (Character.MIN_SURROGATE <= m_Value && m_Value <= Character.MAX_SURROGATE)) {
+         // overlong or not a character
+         ++m_Malformed;
+         return sm_NONE;
+      }
+      return m_Value;
+   }
+
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   private int lead(byte b) {
+      if ((b & 0xE0) == 0xC0) {
+         m_Value = b & 0x1F;
+         m_Needed = 1;
+         m_Minimum = 0x80;
+      } else if ((b & 0xF0) == 0xE0) {
+         m_Value = b & 0x0F;
+         m_Needed = 2;
+         m_Minimum = 0x800;
+      } else if ((b & 0xF8) == 0xF0) {
+         m_Value = b & 0x07;
+         m_Needed = 3;
+         m_Minimum = 0x10000;
+      } else {
+         // stray continuation or invalid byte
+         ++m_Malformed;
+      }
+      return sm_NONE;
+   }
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private int m_Value;
+   private int m_Needed;
+   private int m_Minimum;
+   private int m_Malformed;
+}
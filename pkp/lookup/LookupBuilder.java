@@ -5,7 +5,7 @@
  */
 package pkp.lookup;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import pkp.util.Log;
 
 ///////////////////////////////////////////////////////////////////////////////
@@ -23,11 +23,23 @@ public class LookupBuilder {
    ////////////////////////////////////////////////////////////////////////////
    LookupBuilder(int offset, int tableSize) {
       m_Offset = offset;
-      m_Lookup = new ArrayList<ArrayList<Integer>>(tableSize);
-      m_Overflow = new ArrayList<ArrayList<Integer>>();
-      for (int i = 0; i < tableSize; ++i) {
-         m_Lookup.add(new ArrayList<Integer>());
-      }
+      m_TableSize = tableSize;
+      // an entry for each key in the table, then one for each key
+      // in overflow, in the order first added
+      m_EntryKeys = new int[tableSize + sm_INITIAL_SIZE];
+      m_First = new int[m_EntryKeys.length];
+      m_Last = new int[m_EntryKeys.length];
+      m_Pairs = new int[m_EntryKeys.length];
+      Arrays.fill(m_First, sm_NONE);
+      m_Entries = tableSize;
+      m_OverflowKeys = new int[sm_INITIAL_SIZE * 2];
+      m_OverflowEntries = new int[m_OverflowKeys.length];
+      Arrays.fill(m_OverflowEntries, sm_NONE);
+      m_Key2s = new int[sm_INITIAL_SIZE];
+      m_Values = new int[sm_INITIAL_SIZE];
+      m_Next = new int[sm_INITIAL_SIZE];
+      m_PairEntries = new int[sm_INITIAL_SIZE];
+      m_Added = 0;
       m_ScanSize = 0;
       // By default flag duplicate entry as an error.
       m_Duplicates = Duplicates.ERROR;
@@ -48,86 +60,80 @@ public class LookupBuilder {
    boolean newEntry(int key1, int key2, int index) {
       key1 -= m_Offset;
 //System.out.printf("add: [%d] %d %d: %d \n", m_Offset, key1, key2, index);
-      ArrayList<Integer> entry = null;
-      if (key1 >= 0 && key1 < m_Lookup.size()) {
-//System.out.printf("add: table entry%n");
-         entry = m_Lookup.get(key1);
-      } else {
-//System.out.printf("add: %d %d: %d \n", key1, key2, index);
-         for (int i = 0; ; ++i) {
-            if (i >= m_Overflow.size()) {
-//System.out.printf("add: m_Overflow.add(%d) %d%n", i, key1);
-               entry = new ArrayList<Integer>();
-               m_Overflow.add(entry);
-               break;
-            }
-            entry = m_Overflow.get(i);
-            if (key1 == entry.get(0)) {
-//System.out.printf("add: m_Overflow.get(%d) %d%n", i, key1);
-               break;
-            }
-         }
-      }
-      if (entry.size() == 0) {
-//System.out.println("add: new");
-         entry.add(new Integer(key1));
-      } else 
-      if (isUnwantedDuplicate(key1, key2, index, entry)) {
+      int entry = key1 >= 0 && key1 < m_TableSize
+                ? key1
+                : getOverflowEntry(key1);
+      if (m_First[entry] != sm_NONE
+       && isUnwantedDuplicate(key1, key2, index, entry)) {
          return false;
       }
-      entry.add(new Integer(key2));
-      entry.add(new Integer(index));
-      int size = entry.size();
-//System.out.printf("add: size %d%n", size);
-      if (key2 == LookupTable.sm_NO_VALUE) {
-         if (entry.size() == 3) {
-         } else if (entry.size() == 5) {
-            m_ScanSize += 5;
-         } else {
-            m_ScanSize += 2;
-         }
+      if (m_Added == m_Key2s.length) {
+         int size = m_Added * 2;
+         m_Key2s = Arrays.copyOf(m_Key2s, size);
+         m_Values = Arrays.copyOf(m_Values, size);
+         m_Next = Arrays.copyOf(m_Next, size);
+         m_PairEntries = Arrays.copyOf(m_PairEntries, size);
+      }
+      m_Key2s[m_Added] = key2;
+      m_Values[m_Added] = index;
+      m_Next[m_Added] = sm_NONE;
+      m_PairEntries[m_Added] = entry;
+      if (m_First[entry] == sm_NONE) {
+         m_EntryKeys[entry] = key1;
+         m_First[entry] = m_Added;
       } else {
-//System.out.printf("add: size %d%n", size);
-         if (size == 3) {
-            m_ScanSize += 3;
-         } else {
-            m_ScanSize += 2;
-         }
+         m_Next[m_Last[entry]] = m_Added;
       }
-//System.out.printf("add: m_ScanSize %d%n", m_ScanSize);
+      m_Last[entry] = m_Added;
+      ++m_Pairs[entry];
+      ++m_Added;
       return true;
    }
 
    ////////////////////////////////////////////////////////////////////////////
+   // Sorts the pairs by entry, keeping the order added, in one counting
+   // pass, then compacts each entry's pairs into the table.
    LookupImplementation implement() {
-//System.out.printf("build: offset %d size %d scanSize %d oflowSize %d\n", m_Offset, m_Lookup.size(), m_ScanSize, m_Overflow.size());
-      LookupImplementation lookup = new LookupImplementation(m_Offset, m_Lookup.size(), m_ScanSize, m_Overflow.size());
-      for (int i = 0; i < m_Lookup.size(); ++i) {
-         ArrayList<Integer> entry = m_Lookup.get(i);
-         int k = i + m_Offset;
-//System.out.printf("build: i %d k %d entry.size() %d\n", i, k, entry.size());
-         if (entry.size() == 0) {
-            lookup.empty(k);
-         } else {
-            lookup.add(k, entry);
-         }
+      int overflowSize = m_Entries - m_TableSize;
+      m_ScanSize = getScanSize();
+//System.out.printf("build: offset %d size %d scanSize %d oflowSize %d\n", m_Offset, m_TableSize, m_ScanSize, overflowSize);
+      LookupImplementation lookup = new LookupImplementation(m_Offset, m_TableSize, m_ScanSize, overflowSize);
+      // each entry's key followed by its key2 and value pairs
+      int[] start = new int[m_Entries + 1];
+      for (int e = 0; e < m_Entries; ++e) {
+         start[e + 1] = start[e] + m_Pairs[e] * 2 + 1;
       }
-      for (int i = 0; i < m_Overflow.size(); ++i) {
-         ArrayList<Integer> entry = m_Overflow.get(i);
-         if (entry.size() != 0) {
-//System.out.printf("build m_Overflow: i %d entry.size() %d\n", i, entry.size());
-            lookup.add(entry.get(0) + m_Offset, entry);
+      int[] sorted = new int[start[m_Entries]];
+      int[] next = new int[m_Entries];
+      for (int e = 0; e < m_Entries; ++e) {
+         sorted[start[e]] = m_EntryKeys[e];
+         next[e] = start[e] + 1;
+      }
+      for (int p = 0; p < m_Added; ++p) {
+         int at = next[m_PairEntries[p]];
+         sorted[at] = m_Key2s[p];
+         sorted[at + 1] = m_Values[p];
+         next[m_PairEntries[p]] = at + 2;
+      }
+      for (int e = 0; e < m_Entries; ++e) {
+         if (m_Pairs[e] == 0) {
+            if (e < m_TableSize) {
+               lookup.empty(e + m_Offset);
+            }
+         } else {
+            lookup.add(m_EntryKeys[e] + m_Offset, sorted, start[e], start[e + 1] - start[e]);
          }
       }
-      if (lookup.getTableSize() != m_Lookup.size()) {
-         Log.err(String.format("table size: expected %d actual %d%n", m_Lookup.size(), lookup.getTableSize()));
+      if (lookup.getTableSize() != m_TableSize) {
+         Log.err(String.format("table size: expected %d actual %d%n", m_TableSize, lookup.getTableSize()));
       }
-      if (lookup.getOverflowUsed() != m_Overflow.size() * 2) {
-         Log.err(String.format("overflow size: expected %d actual %d%n", m_Overflow.size() * 2, lookup.getOverflowUsed()));
+      if (lookup.getOverflowUsed() != overflowSize * 2) {
+         Log.err(String.format("overflow size: expected %d actual %d%n", overflowSize * 2, lookup.getOverflowUsed()));
       }
       if (lookup.getScanUsed() > 0 && lookup.getScanUsed() != m_ScanSize + 1) {
          Log.err(String.format("scan size: expected %d actual %d%n", m_ScanSize, lookup.getScanUsed()));
       }
+      lookup.sortOverflow();
 
 //System.out.printf("build: end\n");
       return lookup;
@@ -136,14 +142,84 @@ public class LookupBuilder {
    // Private /////////////////////////////////////////////////////////////////
 
    ////////////////////////////////////////////////////////////////////////////
-   private boolean isUnwantedDuplicate(int key1, int key2, int index, ArrayList<Integer> entry) {
-//System.out.printf("add new: %d %d: %d (%d exist)\n", key1, key2, index, (entry.size() - 1) / 2);
+   // Every entry but a single value with no second key is scanned,
+   // as its size followed by its key2 and value pairs.
+   private int getScanSize() {
+      int scanSize = 0;
+      for (int e = 0; e < m_Entries; ++e) {
+         if (m_Pairs[e] > 1
+          || (m_Pairs[e] == 1 && m_Key2s[m_First[e]] != LookupTable.sm_NO_VALUE)) {
+            scanSize += m_Pairs[e] * 2 + 1;
+         }
+      }
+      return scanSize;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns the entry of a key outside the table, adding it if new.
+   // Overflow keys are hashed into m_OverflowKeys, open addressed.
+   private int getOverflowEntry(int key1) {
+      int mask = m_OverflowKeys.length - 1;
+      int slot = hash(key1) & mask;
+      while (m_OverflowEntries[slot] != sm_NONE) {
+         if (m_OverflowKeys[slot] == key1) {
+            return m_OverflowEntries[slot];
+         }
+         slot = (slot + 1) & mask;
+      }
+      if (m_Entries == m_First.length) {
+         int size = m_Entries * 2;
+         m_EntryKeys = Arrays.copyOf(m_EntryKeys, size);
+         m_First = Arrays.copyOf(m_First, size);
+         m_Last = Arrays.copyOf(m_Last, size);
+         m_Pairs = Arrays.copyOf(m_Pairs, size);
+         Arrays.fill(m_First, m_Entries, size, sm_NONE);
+      }
+      int entry = m_Entries++;
+      m_OverflowKeys[slot] = key1;
+      m_OverflowEntries[slot] = entry;
+      // keep it at most half full
+      if ((m_Entries - m_TableSize) * 2 > m_OverflowKeys.length) {
+         rehashOverflow();
+      }
+      return entry;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void rehashOverflow() {
+      int[] keys = m_OverflowKeys;
+      int[] entries = m_OverflowEntries;
+      m_OverflowKeys = new int[keys.length * 2];
+      m_OverflowEntries = new int[keys.length * 2];
+      Arrays.fill(m_OverflowEntries, sm_NONE);
+      int mask = m_OverflowKeys.length - 1;
+      for (int i = 0; i < keys.length; ++i) {
+         if (entries[i] != sm_NONE) {
+            int slot = hash(keys[i]) & mask;
+            while (m_OverflowEntries[slot] != sm_NONE) {
+               slot = (slot + 1) & mask;
+            }
+            m_OverflowKeys[slot] = keys[i];
+            m_OverflowEntries[slot] = entries[i];
+         }
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static int hash(int key) {
+      int h = key * 0x9e3779b9;
+      return h ^ (h >>> 16);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private boolean isUnwantedDuplicate(int key1, int key2, int index, int entry) {
+//System.out.printf("add new: %d %d: %d (%d exist)\n", key1, key2, index, m_Pairs[entry]);
       if (m_Duplicates == Duplicates.STORE) {
          return false;
       }
-      for (int i = 1; i < entry.size(); i += 2) {
-//System.out.printf("add exist: %d %d: %d%n", key1, entry.get(i), entry.get(i + 1));
-         if (entry.get(i) == key2) {
+      for (int p = m_First[entry]; p != sm_NONE; p = m_Next[p]) {
+//System.out.printf("add exist: %d %d: %d%n", key1, m_Key2s[p], m_Values[p]);
+         if (m_Key2s[p] == key2) {
             Log.Level logLevel = Log.Level.ERROR;
             String action = "";
             switch (m_Duplicates) {
@@ -162,7 +238,7 @@ public class LookupBuilder {
             }
             // user is familiar with key + offset
             int key = key1 + m_Offset;
-            int found = entry.get(i + 1);
+            int found = m_Values[p];
             String msg = String.format(" found for %d [0x%x] and %d [0x%x]%s%s", 
                                        found, found, index, index, action, m_Msg);
             if (key2 == LookupTable.sm_NO_VALUE) {
@@ -172,7 +248,7 @@ public class LookupBuilder {
             }
             Log.log(logLevel, msg);
             if (m_Duplicates == Duplicates.OVERWRITE) {
-               entry.set(i + 1, index);
+               m_Values[p] = index;
             }
             return true;
          }
@@ -181,9 +257,26 @@ public class LookupBuilder {
    }
                
    // Data ////////////////////////////////////////////////////////////////////
+   private static final int sm_INITIAL_SIZE = 16;
+   private static final int sm_NONE = -1;
    protected int m_Offset;
-   protected ArrayList<ArrayList<Integer>> m_Lookup;
-   protected ArrayList<ArrayList<Integer>> m_Overflow;
+   private final int m_TableSize;
+   // per entry: its key, its first and last pairs and how many
+   private int[] m_EntryKeys;
+   private int[] m_First;
+   private int[] m_Last;
+   private int[] m_Pairs;
+   private int m_Entries;
+   // overflow keys hashed to their entries
+   private int[] m_OverflowKeys;
+   private int[] m_OverflowEntries;
+   // per pair added: its key2, its value, the next of its entry
+   // (to find duplicates) and its entry
+   private int[] m_Key2s;
+   private int[] m_Values;
+   private int[] m_Next;
+   private int[] m_PairEntries;
+   private int m_Added;
    protected int m_ScanSize;
    protected Duplicates m_Duplicates;
    private String m_Msg;
@@ -6,10 +6,15 @@
  * A lookup that allows multiple values and sparseness.
  * Target values cannot be negative.
  * Key values can be negative if offset compensates(?). 
+ * Keys outside the table are kept in overflow, sorted once built
+ * and found by binary search.
  */
 package pkp.lookup;
 
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import pkp.util.Log;
 
 ///////////////////////////////////////////////////////////////////////////////
@@ -47,14 +52,14 @@ class LookupImplementation implements LookupTable, LookupSet {
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   void add(int key, ArrayList<Integer> scanValues) {
+   // scanValues from start holds the key then size - 1 key2 and value pairs.
+   void add(int key, int[] scanValues, int start, int size) {
       key -= m_Offset;
-      int size = scanValues.size();
 //System.out.printf("add1: key %d m_Lookup.length %d scansize %d\n", key, m_Lookup.length, size);
       if (0 <= key && key < m_Lookup.length) {
-         if (size == 3 && scanValues.get(1) == sm_NO_VALUE) {
-//System.out.printf("add1: no scan %d m_Lookup[%d] = %d\n", m_Lookup[key], key, scanValues.get(2));
-            m_Lookup[key] = scanValues.get(2);
+         if (size == 3 && scanValues[start + 1] == sm_NO_VALUE) {
+//System.out.printf("add1: no scan %d m_Lookup[%d] = %d\n", m_Lookup[key], key, scanValues[start + 2]);
+            m_Lookup[key] = scanValues[start + 2];
             return;
          } else {
 //System.out.printf("add1: m_Lookup[%d] = -%d\n", key, m_ScanUsed);
@@ -66,8 +71,8 @@ class LookupImplementation implements LookupTable, LookupSet {
             Log.err(String.format("m_Overflow.length %d m_OverflowUsed %d\n", m_Overflow.length, m_OverflowUsed));
          }
          m_Overflow[m_OverflowUsed++] = key;
-         if (size == 3 && scanValues.get(1) == sm_NO_VALUE) {
-            m_Overflow[m_OverflowUsed++] = scanValues.get(2);
+         if (size == 3 && scanValues[start + 1] == sm_NO_VALUE) {
+            m_Overflow[m_OverflowUsed++] = scanValues[start + 2];
             return;
          } else {
             m_Overflow[m_OverflowUsed++] = -m_ScanUsed;
@@ -76,8 +81,8 @@ class LookupImplementation implements LookupTable, LookupSet {
 //System.out.printf("add1: m_Scan[%d++] (length %d) = %d (size)\n", m_ScanUsed, m_Scan.length, size);
       m_Scan[m_ScanUsed++] = size;
       for (int i = 1; i < size; ++i) {
-//System.out.printf("add1: m_Scan[%d++] = %d\n", m_ScanUsed, scanValues.get(i));
-         m_Scan[m_ScanUsed++] = scanValues.get(i);
+//System.out.printf("add1: m_Scan[%d++] = %d\n", m_ScanUsed, scanValues[start + i]);
+         m_Scan[m_ScanUsed++] = scanValues[start + i];
       }
 //System.out.print("add1: " + foundToString(key, get(key)));
    }
@@ -92,9 +97,17 @@ class LookupImplementation implements LookupTable, LookupSet {
 //System.out.printf("get: m_Lookup[%d] %d%n", key1, m_Lookup[key1]);
          return m_Lookup[key1];
       }
-      for (int i = 0; i < m_Overflow.length; i += 2) {
-         if (m_Overflow[i] == key1) {
-            return m_Overflow[i + 1];
+      int lo = 0;
+      int hi = m_OverflowUsed / 2;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         int key = m_Overflow[mid * 2];
+         if (key < key1) {
+            lo = mid + 1;
+         } else if (key > key1) {
+            hi = mid;
+         } else {
+            return m_Overflow[mid * 2 + 1];
          }
       }
       return sm_NO_VALUE;
@@ -146,38 +159,50 @@ class LookupImplementation implements LookupTable, LookupSet {
    // return all matching indices
    @Override // LookupTable
    public int[] getAll(int key1, int key2) {
-//System.out.printf("getAll: key1 0x%x, key2 0x%x\n", key1, key2);
       int found = get(key1);
-//System.out.printf("getAll: found %x\n", found);
-      if (found >= 0) {
-         if (key2 == sm_NO_VALUE) {
-//System.out.printf("getAll: found %x\n", found);
-            return new int[] {2, found};
+      final int[] all = new int[(found < 0 && found != sm_NO_VALUE)
+                                ? getSize(-found) / 2 + 1
+                                : 2];
+      int n = visitAll(key1, key2, new Visitor() {
+         public boolean visit(int value) {
+            all[++m_Found] = value;
+            return true;
          }
-//System.out.println("getAll: return null 1");
+         private int m_Found = 0;
+      });
+      if (n == 0) {
          return null;
       }
+      all[0] = n + 1;
+      return all;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override // LookupTable
+   public int visitAll(int key1, int key2, Visitor v) {
+      int found = get(key1);
       if (found == sm_NO_VALUE) {
-//System.out.println("getAll: return null 2");
-         return null;
+         return 0;
+      }
+      if (found >= 0) {
+         if (key2 != sm_NO_VALUE) {
+            return 0;
+         }
+         v.visit(found);
+         return 1;
       }
       int start = -found;
       int size = getSize(start);
-      int[] all = new int[size / 2 + 1];
-      int j = 0;
+      int visited = 0;
       for (int i = 1; i < size; i += 2) {
-//System.out.printf("getAll found: key2 %d: %d\n", m_Scan[start + i], m_Scan[start + i + 1]);
          if (m_Scan[start + i] == key2) {
-//System.out.printf("getAll found: %d\n", m_Scan[start + i + 1]);
-            all[++j] = m_Scan[start + i + 1];
+            ++visited;
+            if (!v.visit(m_Scan[start + i + 1])) {
+               break;
+            }
          }
       }
-      if (j == 0) {
-//System.out.println("getAll: return null 3");
-         return null;
-      }
-      all[0] = j + 1;
-      return all;
+      return visited;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -193,6 +218,58 @@ class LookupImplementation implements LookupTable, LookupSet {
       return str;
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Sorts the overflow by key, once all are added, for get().
+   void sortOverflow() {
+      long[] pairs = new long[m_OverflowUsed / 2];
+      for (int i = 0; i < pairs.length; ++i) {
+         pairs[i] = (long)m_Overflow[i * 2] << 32 | (m_Overflow[i * 2 + 1] & 0xffffffffL);
+      }
+      Arrays.sort(pairs);
+      for (int i = 0; i < pairs.length; ++i) {
+         m_Overflow[i * 2] = (int)(pairs[i] >> 32);
+         m_Overflow[i * 2 + 1] = (int)pairs[i];
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Writes the built arrays as they are, for read().
+   @Override // LookupTable, LookupSet
+   public void write(DataOutput out) throws IOException {
+      out.writeInt(m_Offset);
+      out.writeInt(m_Lookup.length);
+      out.writeInt(m_Scan == null ? 0 : m_Scan.length - 1);
+      out.writeInt(m_Overflow.length / 2);
+      writeInts(out, m_Lookup, m_Lookup.length);
+      out.writeInt(m_OverflowUsed);
+      writeInts(out, m_Overflow, m_OverflowUsed);
+      if (m_Scan != null) {
+         out.writeInt(m_ScanUsed);
+         writeInts(out, m_Scan, m_ScanUsed);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Reads a lookup written by write(), the same as when it was built.
+   static LookupImplementation read(DataInput in) throws IOException {
+      int offset = in.readInt();
+      int tableSize = in.readInt();
+      int scanSize = in.readInt();
+      int overflowSize = in.readInt();
+      if (tableSize < 0 || scanSize < 0 || overflowSize < 0) {
+         throw new IOException("Negative lookup size");
+      }
+      LookupImplementation lookup = new LookupImplementation(offset, tableSize, scanSize, overflowSize);
+      readInts(in, lookup.m_Lookup, tableSize);
+      lookup.m_OverflowUsed = readUsed(in, lookup.m_Overflow);
+      readInts(in, lookup.m_Overflow, lookup.m_OverflowUsed);
+      if (lookup.m_Scan != null) {
+         lookup.m_ScanUsed = readUsed(in, lookup.m_Scan);
+         readInts(in, lookup.m_Scan, lookup.m_ScanUsed);
+      }
+      return lookup;
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    int getOffset() { return m_Offset; }
    int getTableSize() { return m_Lookup.length; }
@@ -227,6 +304,29 @@ class LookupImplementation implements LookupTable, LookupSet {
       return str;
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   private static void writeInts(DataOutput out, int[] ints, int length) throws IOException {
+      for (int i = 0; i < length; ++i) {
+         out.writeInt(ints[i]);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static void readInts(DataInput in, int[] ints, int length) throws IOException {
+      for (int i = 0; i < length; ++i) {
+         ints[i] = in.readInt();
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static int readUsed(DataInput in, int[] ints) throws IOException {
+      int used = in.readInt();
+      if (used < 0 || used > ints.length) {
+         throw new IOException(String.format("Lookup used %d of %d", used, ints.length));
+      }
+      return used;
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    private int getSize(int start) {
 		if (m_Scan == null) {
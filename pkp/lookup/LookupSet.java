@@ -5,6 +5,9 @@
  */
 package pkp.lookup;
 
+import java.io.DataOutput;
+import java.io.IOException;
+
 ///////////////////////////////////////////////////////////////////////////////
 public interface LookupSet {
 
@@ -16,4 +19,8 @@ public interface LookupSet {
 
    ////////////////////////////////////////////////////////////////////////////
    public boolean is(int key1, int key2);
+
+   ////////////////////////////////////////////////////////////////////////////
+   // for LookupSetBuilder.read(DataInput)
+   public void write(DataOutput out) throws IOException;
 }
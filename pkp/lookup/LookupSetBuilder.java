@@ -5,6 +5,8 @@
  */
 package pkp.lookup;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.net.URL;
 import pkp.io.LineReader;
 import pkp.io.SpacedPairReader;
@@ -61,6 +63,12 @@ public class LookupSetBuilder extends LookupBuilder {
       return ib.build();
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Reads a set saved by LookupSet.write().
+   public static LookupSet read(DataInput in) throws IOException {
+      return LookupImplementation.read(in);
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public LookupSetBuilder(int minFreq, int maxFreq) {
       super(minFreq, maxFreq - minFreq + 1);
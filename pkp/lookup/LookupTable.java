@@ -6,12 +6,21 @@
  */
 package pkp.lookup;
 
+import java.io.DataOutput;
+import java.io.IOException;
+
 ///////////////////////////////////////////////////////////////////////////////
 public interface LookupTable {
 
    ////////////////////////////////////////////////////////////////////////////
    public static final int sm_NO_VALUE = 0x80000000;
 
+   ////////////////////////////////////////////////////////////////////////////
+   public interface Visitor {
+      // Returns false to visit no more.
+      public boolean visit(int value);
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public boolean isSingleKeyed();
 
@@ -21,5 +30,10 @@ public interface LookupTable {
    // returns an array with element 0 the valid length
    // key2 may be NO_VALUE
    public int[] getAll(int key1, int key2);
+   // visits the values getAll() returns, in turn, without allocating
+   // and returns the number visited
+   public int visitAll(int key1, int key2, Visitor v);
+   // for LookupTableBuilder.read(DataInput)
+   public void write(DataOutput out) throws IOException;
    public String toString();
 }
@@ -5,6 +5,8 @@
  */
 package pkp.lookup;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.net.URL;
 import pkp.io.LineReader;
 import pkp.io.SpacedPairReader;
@@ -46,6 +48,12 @@ public class LookupTableBuilder extends LookupBuilder {
       return ltb.build();
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Reads a table saved by LookupTable.write().
+   public static LookupTable read(DataInput in) throws IOException {
+      return LookupImplementation.read(in);
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public LookupTableBuilder(int minFreq, int maxFreq) {
       super(minFreq, maxFreq - minFreq + 1);
@@ -6,167 +6,260 @@
 package pkp.lookup;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 ////////////////////////////////////////////////////////////////////////////////
+// Sorts the counts of several SharedIndexableInts together, once.
+// Then only the counts in a range are indexed, and range() makes an index
+// of another range by binary search, without sorting again.
+// Percents are of the total of each SharedIndexableInts' counts in range,
+// taken from prefix sums of its sorted counts.
+// A range from first to last lists the counts ascending if first <= last,
+// otherwise descending, walking the sorted order backwards if need be.
 public class SharedIndex {
-   
+
    ////////////////////////////////////////////////////////////////////////////
    public static SharedIndex create(SharedIndexableInts si, int first, int last) {
       ArrayList<SharedIndexableInts> sil = new ArrayList<SharedIndexableInts>(1);
       sil.add(si);
       return new SharedIndex(sil, first, last);
    }
-   
+
    ////////////////////////////////////////////////////////////////////////////
    public static SharedIndex create(ArrayList<SharedIndexableInts> sil, int first, int last) {
       return new SharedIndex(sil, first, last);
    }
-   
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The same counts in another range, without sorting again.
+   public SharedIndex range(int first, int last) {
+      return new SharedIndex(this, first, last);
+   }
+
    ///////////////////////////////////////////////////////////////////////////////
    public int getSize() {
-      return m_Index.length;
+      return m_End - m_Start;
    }
-   
+
    ///////////////////////////////////////////////////////////////////////////////
    public String getLabel(int i) {
-      int ix = m_Index[i];
-//System.out.printf("i %d ix %d m_Values[ix] %d m_CounterIndex[ix] %d m_Offset[ix] %d%n", i, ix, m_Values[ix], m_CounterIndex[ix], m_Offset[ix]);
+      int ix = m_Index[toSorted(i)];
       return m_Sic.get(m_CounterIndex[ix]).getLabel(m_Offset[ix]);
    }
-   
+
    ///////////////////////////////////////////////////////////////////////////////
    public int getValue(int i) {
-      return m_Values[m_Index[i]];
+      return m_Values[m_Index[toSorted(i)]];
    }
-   
+
    ///////////////////////////////////////////////////////////////////////////////
    public int getMax() {
-      int max = -Integer.MAX_VALUE;
-      for (int i = 0; i < m_Values.length; ++i) {
-         max = Math.max(max, m_Values[i]);
+      if (getSize() == 0) {
+         return -Integer.MAX_VALUE;
       }
-      return max;
+      return m_Ascending
+             ? m_Values[m_Index[m_End - 1]]
+             : m_Values[m_Index[m_Start]];
    }
-   
+
    ///////////////////////////////////////////////////////////////////////////////
    public double getPercent(int i) {
-      return m_Percent[m_Index[i]];
+      int ix = m_Index[toSorted(i)];
+      return m_Values[ix] * m_Factor[m_CounterIndex[ix]];
    }
-   
+
    ////////////////////////////////////////////////////////////////////////////
+   // Returns the most digits before the point of any percent.
    public int calcPercents() {
-      m_Percent = new double[m_Index.length];
-      int pcDigits = 1;
-      int ci = -1;
-      int size = 0;
-      double factor = 0.0;
-      for (int i = 0; i < m_CounterIndex.length; ++i) {
-         if (m_CounterIndex[i] != ci) {
-            ci = m_CounterIndex[i];
-            double sum = 0.0;
-            int j = i;
-            for (; j < m_CounterIndex.length && m_CounterIndex[i] == ci; ++j) {
-               sum += m_Values[j];
-            }
-            size = j - i;
-            factor = 100.0 / sum;
-         }
-         m_Percent[i] = m_Values[i] * factor;
-         if (m_Percent[i] >= 10.0) {
-            if (m_Percent[i] >= 100.0) {
-               pcDigits = Math.max(pcDigits, 3);
-            } else {
-               pcDigits = Math.max(pcDigits, 2);
-            }
+      m_Factor = new double[m_Sic.size()];
+      double maxPercent = 0.0;
+      for (int c = 0; c < m_Sic.size(); ++c) {
+         int[] sorted = m_Sorted[c];
+         int from = lowerBound(sorted, m_Lowest);
+         int to = upperBound(sorted, m_Highest);
+         long sum = m_PrefixSums[c][to] - m_PrefixSums[c][from];
+         if (sum == 0) {
+            continue;
          }
+         m_Factor[c] = 100.0 / sum;
+         maxPercent = Math.max(maxPercent, sorted[to - 1] * m_Factor[c]);
+      }
+      if (maxPercent >= 100.0) {
+         return 3;
       }
-      return pcDigits;
+      if (maxPercent >= 10.0) {
+         return 2;
+      }
+      return 1;
    }
 
    ///////////////////////////////////////////////////////////////////////////////
    public int getMaxDigits() {
       int maxDigits = 1;
-      for (int i = 0; i < m_Values.length; ++i) {
-         int digits = 0;
-         for (int val = m_Values[i]; val > 0; val /= 10) {
-            ++digits;
-         }
-         if (digits > maxDigits) {
-            maxDigits = digits;
-         }
+      int digits = 0;
+      for (int val = getMax(); val > 0; val /= 10) {
+         ++digits;
       }
-      return maxDigits;
+      return Math.max(maxDigits, digits);
    }
 
    ///////////////////////////////////////////////////////////////////////////////
    public String toString() {
       return String.format("m_Sic.size() %d", m_Sic.size());
    }
-   
+
    // Private /////////////////////////////////////////////////////////////////
 
    ////////////////////////////////////////////////////////////////////////////
    private SharedIndex(ArrayList<SharedIndexableInts> sic, int first, int last) {
       m_Sic = sic;
-      // only index non-zero items
+      m_Ascending = first <= last;
       int indexSize = 0;
-      int lowest = first;
-      int highest = last;
-      boolean ascending = true;
-      if (last < first) {
-         lowest = last;
-         highest = first;
-         ascending = false;
-      }
       for (int i = 0; i < sic.size(); ++i) {
-         SharedIndexableInts s = sic.get(i);
-         int size = s.getSize();
-         for (int j = 0; j < size; ++j) {
-            int count = s.getCount(j);
-            if (lowest <= count && count <= highest) {
-               ++indexSize;
-            }
-         }
+         indexSize += sic.get(i).getSize();
       }
-      // only refer to non-zero items
       m_Values = new int[indexSize];
       m_CounterIndex = new int[indexSize];
-      m_Index = new int[indexSize];
       m_Offset = new int[indexSize];
-      m_Percent = null;
+      m_Sorted = new int[sic.size()][];
+      m_PrefixSums = new long[sic.size()][];
+      // sort (count, position) pairs packed in longs, so equal counts
+      // stay in the order they were given
+      long[] keys = new long[indexSize];
       int k = 0;
       for (int i = 0; i < sic.size(); ++i) {
          SharedIndexableInts s = sic.get(i);
          int size = s.getSize();
+         int[] sorted = new int[size];
          for (int j = 0; j < size; ++j) {
             int count = s.getCount(j);
-            if (lowest <= count && count <= highest) {
-               m_Values[k] = count;
-               m_CounterIndex[k] = i;
-               m_Index[k] = k;
-               m_Offset[k] = j;
-               ++k;
-            }
+            m_Values[k] = count;
+            m_CounterIndex[k] = i;
+            m_Offset[k] = j;
+            keys[k] = (long)(m_Ascending ? count : ~count) << 32 | k;
+            sorted[j] = count;
+            ++k;
+         }
+         Arrays.sort(sorted);
+         long[] sums = new long[size + 1];
+         for (int j = 0; j < size; ++j) {
+            sums[j + 1] = sums[j] + sorted[j];
          }
+         m_Sorted[i] = sorted;
+         m_PrefixSums[i] = sums;
       }
-      // sort
-      for (int i = 0; i < m_Index.length; ++i) {
-         for (int j = i + 1; j < m_Index.length; ++j) {
-            if (( ascending && m_Values[m_Index[j]] < m_Values[m_Index[i]])
-             || (!ascending && m_Values[m_Index[j]] > m_Values[m_Index[i]])) {
-               int tmp = m_Index[i];
-               m_Index[i] = m_Index[j];
-               m_Index[j] = tmp;
-            }
+      Arrays.sort(keys);
+      m_Index = new int[indexSize];
+      for (int i = 0; i < indexSize; ++i) {
+         m_Index[i] = (int)keys[i];
+      }
+      setRange(first, last);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private SharedIndex(SharedIndex other, int first, int last) {
+      m_Sic = other.m_Sic;
+      m_Ascending = other.m_Ascending;
+      m_Values = other.m_Values;
+      m_CounterIndex = other.m_CounterIndex;
+      m_Offset = other.m_Offset;
+      m_Index = other.m_Index;
+      m_Sorted = other.m_Sorted;
+      m_PrefixSums = other.m_PrefixSums;
+      setRange(first, last);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void setRange(int first, int last) {
+      m_Reversed = (first <= last) != m_Ascending;
+      m_Lowest = Math.min(first, last);
+      m_Highest = Math.max(first, last);
+      m_Factor = null;
+      if (m_Ascending) {
+         m_Start = firstIndexed(m_Lowest, true);
+         m_End = firstIndexed(m_Highest, false);
+      } else {
+         m_Start = firstIndexed(m_Highest, true);
+         m_End = firstIndexed(m_Lowest, false);
+      }
+      m_End = Math.max(m_Start, m_End);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The position in the sorted order of the ith in range.
+   private int toSorted(int i) {
+      return m_Reversed
+             ? m_End - 1 - i
+             : m_Start + i;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The first in the sorted order that has reached value, if atValue,
+   // or passed it if not.
+   private int firstIndexed(int value, boolean atValue) {
+      int lo = 0;
+      int hi = m_Index.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         int v = m_Values[m_Index[mid]];
+         boolean before = m_Ascending
+                        ? (atValue ? v < value : v <= value)
+                        : (atValue ? v > value : v >= value);
+         if (before) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The first of the ascending values that is not less than value.
+   private static int lowerBound(int[] sorted, int value) {
+      int lo = 0;
+      int hi = sorted.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (sorted[mid] < value) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
          }
       }
+      return lo;
    }
-   
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The first of the ascending values that is greater than value.
+   private static int upperBound(int[] sorted, int value) {
+      int lo = 0;
+      int hi = sorted.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (sorted[mid] <= value) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
    // Data ////////////////////////////////////////////////////////////////////
-   private ArrayList<SharedIndexableInts> m_Sic;
-   private int[] m_Values;
-   private int[] m_CounterIndex;
-   private int[] m_Index;
-   private int[] m_Offset;
-   private double[] m_Percent;
+   private final ArrayList<SharedIndexableInts> m_Sic;
+   // the sorted order
+   private final boolean m_Ascending;
+   private final int[] m_Values;
+   private final int[] m_CounterIndex;
+   private final int[] m_Index;
+   private final int[] m_Offset;
+   private final int[][] m_Sorted;
+   private final long[][] m_PrefixSums;
+   private int m_Lowest;
+   private int m_Highest;
+   private int m_Start;
+   private int m_End;
+   private boolean m_Reversed;
+   private double[] m_Factor;
 }
@@ -5,6 +5,9 @@
  */
 package pkp.string;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
 ///////////////////////////////////////////////////////////////////////////////
@@ -13,6 +16,31 @@ public class StringsInts extends java.lang.Object {
    ////////////////////////////////////////////////////////////////////////////
    public StringsInts(StringInt[] stringsInts) {
       m_StringsInts = stringsInts;
+      indexInts();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Reads strings and ints saved by write(), already sorted.
+   public static StringsInts read(DataInput in) throws IOException {
+      int size = in.readInt();
+      if (size < 0) {
+         throw new IOException("Negative strings size");
+      }
+      StringInt[] stringsInts = new StringInt[size];
+      for (int i = 0; i < size; ++i) {
+         String str = in.readUTF();
+         stringsInts[i] = new StringInt(str, in.readInt());
+      }
+      return new StringsInts(stringsInts);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public void write(DataOutput out) throws IOException {
+      out.writeInt(m_StringsInts.length);
+      for (StringInt si: m_StringsInts) {
+         out.writeUTF(si.getString());
+         out.writeInt(si.getInt());
+      }
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -27,15 +55,35 @@ public class StringsInts extends java.lang.Object {
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   public String getString(int i, String fail) {
-      for (StringInt si: m_StringsInts) {
-         if (i == si.getInt()) {
-            return si.getString();
+   // As getInt(str.subSequence(start, end).toString(), fail), without copying.
+   public int getInt(CharSequence str, int start, int end, int fail) {
+      int lo = 0;
+      int hi = m_StringsInts.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (compareIgnoreCase(m_StringsInts[mid].getString(), str, start, end) < 0) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
          }
       }
+      if (lo < m_StringsInts.length
+       && compareIgnoreCase(m_StringsInts[lo].getString(), str, start, end) == 0) {
+         return m_StringsInts[lo].getInt();
+      }
       return fail;
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns the first string, in sorted order, of i.
+   public String getString(int i, String fail) {
+      int ix = Arrays.binarySearch(m_Ints, i);
+      if (ix < 0) {
+         return fail;
+      }
+      return m_IntStrings[ix];
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public int size() {
       return m_StringsInts.length;
@@ -50,6 +98,57 @@ public class StringsInts extends java.lang.Object {
       return str;
    }
 
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Compares as String.compareToIgnoreCase() does.
+   private static int compareIgnoreCase(String s, CharSequence str, int start, int end) {
+      int length = Math.min(s.length(), end - start);
+      for (int i = 0; i < length; ++i) {
+         char c1 = s.charAt(i);
+         char c2 = str.charAt(start + i);
+         if (c1 != c2) {
+            c1 = Character.toUpperCase(c1);
+            c2 = Character.toUpperCase(c2);
+            if (c1 != c2) {
+               c1 = Character.toLowerCase(c1);
+               c2 = Character.toLowerCase(c2);
+               if (c1 != c2) {
+                  return c1 - c2;
+               }
+            }
+         }
+      }
+      return s.length() - (end - start);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Sorts the ints, each with the first of its strings, for getString().
+   private void indexInts() {
+      // (int, position) pairs packed in longs, so the first of equal ints
+      // sorts first
+      long[] pairs = new long[m_StringsInts.length];
+      for (int i = 0; i < pairs.length; ++i) {
+         pairs[i] = (long)m_StringsInts[i].getInt() << 32 | i;
+      }
+      Arrays.sort(pairs);
+      int size = 0;
+      for (int i = 0; i < pairs.length; ++i) {
+         if (i == 0 || (int)(pairs[i] >> 32) != (int)(pairs[i - 1] >> 32)) {
+            pairs[size++] = pairs[i];
+         }
+      }
+      m_Ints = new int[size];
+      m_IntStrings = new String[size];
+      for (int i = 0; i < size; ++i) {
+         m_Ints[i] = (int)(pairs[i] >> 32);
+         m_IntStrings[i] = m_StringsInts[(int)pairs[i]].getString();
+      }
+   }
+
    // Data ////////////////////////////////////////////////////////////////////
    private StringInt[] m_StringsInts;
+   // each int once, ascending, and its first string
+   private int[] m_Ints;
+   private String[] m_IntStrings;
 }
@@ -57,6 +57,7 @@ public class TextPanel
       m_PressedTimer.stop();
       m_KeyMap = km;
       m_Text = "";
+      m_Parsed = new KeyPressList();
       m_SPACE = (char)Pref.getInt("#.text.visible.space", 0x87);
       m_Past = "";
       m_KplSource = null;
@@ -122,7 +123,7 @@ public class TextPanel
       Assignment asg = null;
       for (int i = 0; i < 1000 && asg == null; ++i) {
          m_Text = getNextString();
-         asg = KeyPressList.parseTextAndTags(m_Text).findLongestPrefix(m_KeyMap);
+         asg = KeyPressList.parseTextAndTags(m_Text, m_Parsed, null).findLongestPrefix(m_KeyMap);
       }
       if (asg == null) {
          Log.warn("No key found that maps to a chord.");
@@ -143,7 +144,7 @@ public class TextPanel
       m_Text = m_Text.substring(str.length());
       Assignment asg = null;
       while (!"".equals(m_Text) 
-          && (asg = KeyPressList.parseTextAndTags(m_Text).findLongestPrefix(m_KeyMap)) == null) {
+          && (asg = KeyPressList.parseTextAndTags(m_Text, m_Parsed, null).findLongestPrefix(m_KeyMap)) == null) {
          // skip unmapped characters
          m_Past += m_Text.substring(0, 1);
          m_Text = m_Text.substring(1);
@@ -293,6 +294,8 @@ public class TextPanel
    private int m_Start;
    private int m_Length;
    private String m_Text;
+   // m_Text parsed, reused
+   private KeyPressList m_Parsed;
    private boolean m_Hit;
    private Font m_PromptFont;
    private Font m_TextFont;
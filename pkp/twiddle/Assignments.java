@@ -8,12 +8,25 @@
  * each with their KeyPressList, if any.
  * to121ChordList() returns a list of all defined chord twiddles
  * in order, each with their KeyPressList, if any.
+ * Each twiddle and KeyPressList is hashed to the index of its
+ * assignment, so adding and finding do not search the list.
+ * Adding, removing and setting one assignment updates only the index
+ * entries that change; other changes to the list reindex it.
+ * The lists derived from the assignments are kept until they change,
+ * as counted by modCount, so asking again for the same is free.
  */
 
 package pkp.twiddle;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.io.File;
 import pkp.times.SortedChordTimes;
 import pkp.io.LineReader;
@@ -62,7 +75,7 @@ public class Assignments extends ArrayList<Assignment> {
                Twiddle tw = Twiddle.fromChordValue(i, 0);
                KeyPress kp;
                do {
-                  kp = new KeyPress(code, modifiers);
+                  kp = KeyPress.fromKeyCode(code, modifiers);
                   ++code;
                   // omit keys with keyboard state etc
                   while (code == 0x39 // CapsLock
@@ -95,6 +108,7 @@ public class Assignments extends ArrayList<Assignment> {
    ////////////////////////////////////////////////////////////////////////////
    public Assignments(Assignments asgs) {
       super(asgs);
+      index();
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -120,24 +134,16 @@ public class Assignments extends ArrayList<Assignment> {
 
    ////////////////////////////////////////////////////////////////////////////
    public boolean hasChords() {
-      return to121ChordList().size() > 0;
+      return !to121ChordList().isEmpty();
    }
 
    ////////////////////////////////////////////////////////////////////////////
    // An assignment maps one KeyPressList to all its twiddles.
    // This returns a list of all defined chord twiddles each,
-   // with their KeyPressList.
+   // with their KeyPressList. The list is shared, so cannot be changed.
    public List<Assignment> to121ChordList() {
-      List<Assignment> asgs = new ArrayList<Assignment>();
-      for (Assignment asg : this) {
-         List<Assignment> sep = asg.separate();
-         for (Assignment a : sep) {
-            if (!a.getTwiddle(0).getChord().isMouseButton()) {
-               asgs.add(a);
-            }
-         }
-      }
-      return asgs;
+      separate();
+      return m_121ChordView;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -149,8 +155,8 @@ public class Assignments extends ArrayList<Assignment> {
          asgs.add(new Assignment(new Twiddle(Chord.fromMouseButton(i + 1)),
                                  new KeyPressList()));
       }
-      List<Assignment> mbs = getMouseButtonAssignments();
-      for (Assignment a : mbs) {
+      separate();
+      for (Assignment a : m_MouseButtons) {
          if (!a.isDefaultMouse()) {
             asgs.set(a.getTwiddle(0).getChord().getMouseButton() - 1, 
                      a);
@@ -191,32 +197,35 @@ public class Assignments extends ArrayList<Assignment> {
             }
          }
       }
-      List<Assignment> asgs = getMouseButtonAssignments();
-      List<Assignment> c = to121ChordList();
-      for (Assignment a : c) {
-         asgs.add(a);
-      }
-      if (showAll) {
-         asgs.addAll(getUnmapped(asgs));
-      }
+      List<Assignment> asgs;
       if (times != null) {
-         asgs = sort(asgs, times);
+         asgs = sort(showAll, times);
+      } else {
+         separate();
+         asgs = new ArrayList<Assignment>(m_MouseButtons);
+         asgs.addAll(m_121Chords);
+         if (showAll) {
+            asgs.addAll(getUnmapped());
+         }
       }
-      String str = "";
+      StringBuilder str = new StringBuilder();
       for (Assignment asg: asgs) {
-         str += asg.toString(showThumbs, format, "\n") + "\n";
+         str.append(asg.toString(showThumbs, format, "\n")).append('\n');
       }
-      return str;
+      return str.toString();
    }
 
    ////////////////////////////////////////////////////////////////////////////
    public int find(Twiddle tw) {
-      for (int i = 0; i < size(); ++i) {
-         if (get(i).isMap(tw)) {
-            return i;
-         }
-      }
-      return -1;
+      Integer i = m_TwiddleIndex.get(tw);
+      return i == null ? -1 : i;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns the index of the assignment of kpl, or -1.
+   public int find(KeyPressList kpl) {
+      Integer i = m_KeyPressListIndex.get(kpl);
+      return i == null ? -1 : i;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -238,16 +247,148 @@ public class Assignments extends ArrayList<Assignment> {
          return false;
       }
       KeyPressList kpl = newAsg.getKeyPressList();
-      for (int i = 0; i < size(); ++i) {
-         if (newAsg.getKeyPressList().equals(get(i).getKeyPressList())) {
-            set(i, Assignment.combine(get(i), newAsg));
-            return true;
-         }
+      int i = find(kpl);
+      if (i != -1) {
+         super.set(i, Assignment.combine(get(i), newAsg));
+         // set() is not counted
+         ++modCount;
+         index(i);
+         return true;
       }
 		super.add(newAsg);
+      index(size() - 1);
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public Assignment remove(int i) {
+      unindex(i, get(i));
+      Assignment asg = super.remove(i);
+      if (i < size()) {
+         shiftDown(m_TwiddleIndex, i);
+         shiftDown(m_KeyPressListIndex, i);
+      }
+      return asg;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public boolean remove(Object o) {
+      int i = indexOf(o);
+      if (i == -1) {
+         return false;
+      }
+      remove(i);
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public void clear() {
+      super.clear();
+      index();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds each as add() does.
+   @Override
+   public boolean addAll(Collection<? extends Assignment> asgs) {
+      boolean added = false;
+      for (Assignment asg : asgs) {
+         added |= add(asg);
+      }
+      return added;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Inserts asg as is, unlike add(asg).
+   @Override
+   public void add(int i, Assignment asg) {
+      super.add(i, asg);
+      index();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Inserts asgs as they are, unlike addAll(asgs).
+   @Override
+   public boolean addAll(int i, Collection<? extends Assignment> asgs) {
+      if (!super.addAll(i, asgs)) {
+         return false;
+      }
+      index();
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public Assignment set(int i, Assignment asg) {
+      Assignment was = super.set(i, asg);
+      // set() is not counted
+      ++modCount;
+      unindex(i, was);
+      index(i);
+      return was;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public void replaceAll(UnaryOperator<Assignment> op) {
+      super.replaceAll(op);
+      index();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public boolean removeIf(Predicate<? super Assignment> filter) {
+      if (!super.removeIf(filter)) {
+         return false;
+      }
+      index();
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public boolean removeAll(Collection<?> c) {
+      if (!super.removeAll(c)) {
+         return false;
+      }
+      index();
+      return true;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public boolean retainAll(Collection<?> c) {
+      if (!super.retainAll(c)) {
+         return false;
+      }
+      index();
       return true;
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   protected void removeRange(int from, int to) {
+      super.removeRange(from, to);
+      index();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public void sort(Comparator<? super Assignment> c) {
+      super.sort(c);
+      index();
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // A view that cannot change the list behind the index.
+   @Override
+   public List<Assignment> subList(int from, int to) {
+      return Collections.unmodifiableList(super.subList(from, to));
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public boolean isRemap() {
       return m_Remap.size() > 0;
@@ -287,13 +428,93 @@ public class Assignments extends ArrayList<Assignment> {
    // Private /////////////////////////////////////////////////////////////////
 
    ////////////////////////////////////////////////////////////////////////////
-   private List<Assignment> getMouseButtonAssignments() {
+   // Hashes every twiddle and KeyPressList afresh.
+   private void index() {
+      m_TwiddleIndex.clear();
+      m_KeyPressListIndex.clear();
+      for (int i = 0; i < size(); ++i) {
+         index(i);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The first assignment of a twiddle or KeyPressList is kept, as
+   // find() found by searching.
+   private void index(int i) {
+      Assignment asg = get(i);
+      for (int t = 0; t < asg.getTwiddleCount(); ++t) {
+         Integer was = m_TwiddleIndex.get(asg.getTwiddle(t));
+         if (was == null || was > i) {
+            m_TwiddleIndex.put(asg.getTwiddle(t), i);
+         }
+      }
+      Integer was = m_KeyPressListIndex.get(asg.getKeyPressList());
+      if (was == null || was > i) {
+         m_KeyPressListIndex.put(asg.getKeyPressList(), i);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Moves each key that asg, the assignment at i, was indexed by to the
+   // next assignment after i with it, or drops it if none.
+   private void unindex(int i, Assignment asg) {
+      for (int t = 0; t < asg.getTwiddleCount(); ++t) {
+         Twiddle tw = asg.getTwiddle(t);
+         Integer was = m_TwiddleIndex.get(tw);
+         if (was != null && was == i) {
+            int next = i + 1;
+            while (next < size() && !get(next).isMap(tw)) {
+               ++next;
+            }
+            if (next < size()) {
+               m_TwiddleIndex.put(tw, next);
+            } else {
+               m_TwiddleIndex.remove(tw);
+            }
+         }
+      }
+      KeyPressList kpl = asg.getKeyPressList();
+      Integer was = m_KeyPressListIndex.get(kpl);
+      if (was != null && was == i) {
+         int next = i + 1;
+         while (next < size() && !get(next).getKeyPressList().equals(kpl)) {
+            ++next;
+         }
+         if (next < size()) {
+            m_KeyPressListIndex.put(kpl, next);
+         } else {
+            m_KeyPressListIndex.remove(kpl);
+         }
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Moves the entries after i down one, the assignment at i having
+   // been removed.
+   private static <K> void shiftDown(HashMap<K, Integer> index, int i) {
+      for (Map.Entry<K, Integer> e : index.entrySet()) {
+         if (e.getValue() > i) {
+            e.setValue(e.getValue() - 1);
+         }
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Separates the assignments into mouse buttons and chords, one twiddle
+   // each, unless done since the last change, and forgets the lists made
+   // from them.
+   private void separate() {
+      if (m_SeparatedAt == modCount) {
+         return;
+      }
       List<Assignment> mbs = new ArrayList<Assignment>(3);
+      List<Assignment> chords = new ArrayList<Assignment>(size());
       for (Assignment asg : this) {
          List<Assignment> sep = asg.separate();
          for (Assignment a : sep) {
-            if (a.getTwiddle(0).getChord().isMouseButton()
-             && !a.isDefaultMouse()) {
+            if (!a.getTwiddle(0).getChord().isMouseButton()) {
+               chords.add(a);
+            } else if (!a.isDefaultMouse()) {
                mbs.add(a);
             }
          }
@@ -301,31 +522,81 @@ public class Assignments extends ArrayList<Assignment> {
       if (mbs.size() > 3) {
          Log.warn("Found more than 3 mouse button mappings.");
       }
-      return mbs;
+      m_MouseButtons = mbs;
+      m_121Chords = chords;
+      m_121ChordView = Collections.unmodifiableList(chords);
+      m_Unmapped = null;
+      m_ByChord = null;
+      m_Sorted = null;
+      m_SeparatedAt = modCount;
    }
 
    ///////////////////////////////////////////////////////////////////////////////
-   private static List<Assignment> getUnmapped(List<Assignment> asgs) {
+   // The chords with no assignment without thumb keys.
+   private List<Assignment> getUnmapped() {
+      separate();
+      if (m_Unmapped != null) {
+         return m_Unmapped;
+      }
+      boolean[] mapped = new boolean[Chord.sm_VALUES + 1];
+      for (Assignment a : m_121Chords) {
+         // only one twiddle per assignment in 121 list
+         Twiddle tw = a.getTwiddle(0);
+         int chord = tw.getChord().toInt();
+         if (tw.getThumbKeys().isEmpty()
+          && chord >= 1 && chord <= Chord.sm_VALUES) {
+            mapped[chord] = true;
+         }
+      }
       List<Assignment> unmapped = new ArrayList<Assignment>();
       for (int chord = 1; chord <= Chord.sm_VALUES; ++chord) {
-         int a = 0;
-         for (; a < asgs.size(); ++a) {
-            // only one twiddle per assignment in 121 list
-            Twiddle tw = asgs.get(a).getTwiddle(0);
-            if (tw.getThumbKeys().isEmpty()
-             && tw.getChord().toInt() == chord) {
-               break;
-            }
-         }
-         if (a == asgs.size()) {
+         if (!mapped[chord]) {
             unmapped.add(new Assignment(Twiddle.fromChordValue(chord), new KeyPressList()));
          }
       }
+      m_Unmapped = unmapped;
       return unmapped;
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   private static List<Assignment> sort(List<Assignment> asgs, SortedChordTimes times) {
+   // The mouse button and chord assignments of each chord, in order.
+   private HashMap<Integer, List<Assignment>> getByChord() {
+      separate();
+      if (m_ByChord != null) {
+         return m_ByChord;
+      }
+      HashMap<Integer, List<Assignment>> byChord = new HashMap<Integer, List<Assignment>>();
+      List<Assignment> asgs = new ArrayList<Assignment>(m_MouseButtons);
+      asgs.addAll(m_121Chords);
+      for (Assignment a : asgs) {
+         int chord = a.getTwiddle(0).getChord().toInt();
+         List<Assignment> same = byChord.get(chord);
+         if (same == null) {
+            same = new ArrayList<Assignment>();
+            byChord.put(chord, same);
+         }
+         same.add(a);
+      }
+      m_ByChord = byChord;
+      return byChord;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The mouse button and chord assignments, and the unmapped chords if
+   // showAll, in the order of times, those with thumb keys last.
+   private List<Assignment> sort(boolean showAll, SortedChordTimes times) {
+      separate();
+      if (m_Sorted != null && m_SortedTimes == times && m_SortedShowAll == showAll) {
+         return m_Sorted;
+      }
+      HashMap<Integer, List<Assignment>> byChord = getByChord();
+      // unmapped chords have no thumb keys and follow the mapped
+      Assignment[] unmapped = new Assignment[Chord.sm_VALUES + 1];
+      if (showAll) {
+         for (Assignment a : getUnmapped()) {
+            unmapped[a.getTwiddle(0).getChord().toInt()] = a;
+         }
+      }
       List<Assignment> sorted = new ArrayList<Assignment>();
       List<Assignment> sortedThumbed = new ArrayList<Assignment>();
       for (int i = 0; i < times.getSize(); ++i) {
@@ -335,21 +606,39 @@ public class Assignments extends ArrayList<Assignment> {
             Log.err("Badly formed chord \"" + times.getSortedLabel(i) + "\".");
             continue;
          }
-         for (Assignment a : asgs) {
-            Twiddle tw = a.getTwiddle(0);
-            if (tw.getChord().toInt() == chord) {
-               if (tw.getThumbKeys().isEmpty()) {
+         List<Assignment> same = byChord.get(chord);
+         if (same != null) {
+            for (Assignment a : same) {
+               if (a.getTwiddle(0).getThumbKeys().isEmpty()) {
                   sorted.add(a);
                } else {
                   sortedThumbed.add(a);
                }
             }
          }
+         if (chord <= Chord.sm_VALUES && unmapped[chord] != null) {
+            sorted.add(unmapped[chord]);
+         }
       }
       sorted.addAll(sortedThumbed);
+      m_Sorted = sorted;
+      m_SortedTimes = times;
+      m_SortedShowAll = showAll;
       return sorted;
    }
 
    // Data ////////////////////////////////////////////////////////////////////
    private List<Assignment> m_Remap = new ArrayList<Assignment>();
+   private HashMap<Twiddle, Integer> m_TwiddleIndex = new HashMap<Twiddle, Integer>();
+   private HashMap<KeyPressList, Integer> m_KeyPressListIndex = new HashMap<KeyPressList, Integer>();
+   // the lists below were made at modCount m_SeparatedAt, or are null
+   private int m_SeparatedAt = -1;
+   private List<Assignment> m_MouseButtons;
+   private List<Assignment> m_121Chords;
+   private List<Assignment> m_121ChordView;
+   private List<Assignment> m_Unmapped;
+   private HashMap<Integer, List<Assignment>> m_ByChord;
+   private List<Assignment> m_Sorted;
+   private SortedChordTimes m_SortedTimes;
+   private boolean m_SortedShowAll;
 }
@@ -2,6 +2,9 @@
  * Copyright 2015 Pushkar Piggott
  *
  * Chord.java
+ *
+ * There are only 255 chords and 3 mouse buttons, so each is made once,
+ * with its counts, cfg and strings worked out then, and shared.
  */
  
 package pkp.twiddle;
@@ -181,37 +184,15 @@ public class Chord {
 
    /////////////////////////////////////////////////////////////////////////////
    public static int reverse(int ch) {
-      for (int i = 0; i < 5; ++i) {
-         if ((ch & 1 << i * 2) != 0) {
-            ch ^= 1 << i * 2 + 1;
-         }
+      if (isValue(ch)) {
+         return sm_CHORDS[index(ch)].m_Reversed;
       }
-      return ch;
+      return calcReverse(ch);
    }
 
    /////////////////////////////////////////////////////////////////////////////
    public int toCfg() {
-      if (isMouseButton()) {
-         return 0;
-      }
-      int cfg = 0;
-      int chord = m_Value;
-      for (int i = 0; i < 4; ++i) {
-         cfg <<= 4;
-         switch (chord & 0xc0) {
-         case 0x40:
-            cfg |= 2;
-            break;
-         case 0x80:
-            cfg |= 4;
-            break;
-         case 0xc0:
-            cfg |= 8;
-            break;
-         }
-         chord <<= 2;
-      }
-      return cfg;
+      return m_Cfg;
    }
 
    /////////////////////////////////////////////////////////////////////////////
@@ -240,72 +221,58 @@ public class Chord {
 
    /////////////////////////////////////////////////////////////////////////////
    public static Chord fromChordValue(int cv) {
-      return new Chord(cv & sm_VALUES);
+      return sm_CHORDS[cv & sm_VALUES];
    }
 
    /////////////////////////////////////////////////////////////////////////////
    public static Chord fromMouseButton(int mb) {
       return (mb < 1 || mb > sm_POSITIONS)
-              ? new Chord(0)
-              : new Chord((sm_POSITIONS + 1 - mb) << 8);
+              ? sm_CHORDS[0]
+              : sm_CHORDS[index((sm_POSITIONS + 1 - mb) << 8)];
    }
 
    /////////////////////////////////////////////////////////////////////////////
-   public Chord(String str) {
-      m_Value = fromString(str);
+   // A chord or mouse button value, as from fromString(), or 0 if not one.
+   public static Chord fromInt(int value) {
+      return isValue(value)
+             ? sm_CHORDS[index(value)]
+             : sm_CHORDS[0];
    }
 
    /////////////////////////////////////////////////////////////////////////////
    public boolean equals(Object obj) {
+      if (obj == this) {
+         return true;
+      }
+      if (!(obj instanceof Chord)) {
+         return false;
+      }
       Chord other = (Chord)obj;
 //System.out.printf("%d==%d%n", m_Value, other.m_Value);
 
-      return other != null && other.m_Value == m_Value;
+      return other.m_Value == m_Value;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   @Override
+   public int hashCode() {
+      return m_Value;
    }
 
    /////////////////////////////////////////////////////////////////////////////
    public int countFingers() {
-      int fingers = 0;
-      for (int finger = 0; finger < Finger.count(); ++finger) {
-         if (getFingerPosition(finger, m_Value) != 0) {
-            ++fingers;
-         }
-      }
-      return fingers;
+      return m_Fingers;
    }
 
    /////////////////////////////////////////////////////////////////////////////
    public int countFingerGaps() {
-      int gaps = 0;
-      int gapSize = 0;
-      boolean started = false;
-      for (int finger = 0; finger < Finger.count(); ++finger) {
-         if (getFingerPosition(finger, m_Value) == 0) {
-            ++gapSize;
-         } else {
-            if (started) {
-               gaps += gapSize;
-            }
-            started = true;
-            gapSize = 0;
-         }
-      }
-      return gaps;
+      return m_FingerGaps;
    }
 
    /////////////////////////////////////////////////////////////////////////////
    public int countPositions() {
-      boolean position[] = new boolean[Position.count()];
-      for (int i = 0; i < Finger.count(); ++i) {
-         position[getFingerPosition(i, m_Value)] = true;
-      }
-      int positions = 0;
-      for (int i = 1; i < Position.count(); ++i) {
-         if (position[i]) {
-            ++positions;
-         }
-      }
-      return positions;
+      // position O is not counted
+      return Integer.bitCount(m_PositionsUsed & ~1);
    }
 
    /////////////////////////////////////////////////////////////////////////////
@@ -315,21 +282,7 @@ public class Chord {
 
    /////////////////////////////////////////////////////////////////////////////
    public int countPositionGaps() {
-      int gaps = 0;
-      int lastPosition = 0;
-      int lastFinger = 0;
-      for (int finger = 0; finger < Finger.count(); ++finger) {
-         int position = getFingerPosition(finger, m_Value);
-         if (position != 0) {
-            if (lastPosition != 0) {
-               gaps += Math.abs(position - lastPosition) * 6 
-                     / (finger - lastFinger);
-            }
-            lastPosition = position;
-            lastFinger = finger;
-         }
-      }
-      return gaps;
+      return m_PositionGaps;
    }
 
    /////////////////////////////////////////////////////////////////////////////
@@ -339,17 +292,12 @@ public class Chord {
 
    /////////////////////////////////////////////////////////////////////////////
    public boolean contains(Position p) {
-      for (Finger f : Finger.values()) {
-         if (contains(f, p)) {
-            return true;
-         }
-      }
-      return false;
+      return (m_PositionsUsed & 1 << p.toInt()) != 0;
    }
 
    /////////////////////////////////////////////////////////////////////////////
    public Chord reversed() {
-      return new Chord(reverse(toInt()));
+      return sm_CHORDS[index(m_Reversed)];
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -396,27 +344,158 @@ public class Chord {
 
    /////////////////////////////////////////////////////////////////////////////
    public String toString() {
-      String str = "";
-      if (isMouseButton()) {
-         return "" + Position.fromInt(getFingerPosition(sm_MOUSE_FINGER, m_Value));
-      }
-      for (int finger = 0; finger < 4; ++finger) {
-         str += Position.fromInt(getFingerPosition(finger, m_Value));
-      }
-      return str;
+      return isUsing4Finger() ? m_Name : m_0mrl;
    }
 
    // Private //////////////////////////////////////////////////////////////////
 
    /////////////////////////////////////////////////////////////////////////////
+   // value must be valid
    private Chord(int value) {
-      if (value < 0 
-       || (value > sm_VALUES
-        && (value & ~(3 << sm_MOUSE_FINGER * 2)) != 0)) {
-         m_Value = 0;
-      } else {
-         m_Value = value;
+      m_Value = value;
+      m_Fingers = calcFingers(value);
+      m_FingerGaps = calcFingerGaps(value);
+      m_PositionsUsed = calcPositionsUsed(value);
+      m_PositionGaps = calcPositionGaps(value);
+      m_Reversed = calcReverse(value);
+      m_Cfg = calcCfg(value);
+      m_Name = calcString(value, true);
+      m_0mrl = calcString(value, false);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Each chord and then each mouse button, at index().
+   private static Chord[] createAll() {
+      Chord[] chords = new Chord[sm_VALUES + 1 + sm_POSITIONS];
+      for (int i = 0; i <= sm_VALUES; ++i) {
+         chords[i] = new Chord(i);
+      }
+      for (int mb = 1; mb <= sm_POSITIONS; ++mb) {
+         chords[index(mb << 8)] = new Chord(mb << 8);
       }
+      return chords;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   private static boolean isValue(int value) {
+      return value >= 0
+          && (value <= sm_VALUES
+           || (value & ~(3 << sm_MOUSE_FINGER * 2)) == 0);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // value must be valid
+   private static int index(int value) {
+      return value <= sm_VALUES
+             ? value
+             : sm_VALUES + (value >> sm_MOUSE_FINGER * 2);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   private static int calcReverse(int ch) {
+      for (int i = 0; i < 5; ++i) {
+         if ((ch & 1 << i * 2) != 0) {
+            ch ^= 1 << i * 2 + 1;
+         }
+      }
+      return ch;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   private static int calcCfg(int chord) {
+      if (chord > sm_VALUES) {
+         return 0;
+      }
+      int cfg = 0;
+      for (int i = 0; i < 4; ++i) {
+         cfg <<= 4;
+         switch (chord & 0xc0) {
+         case 0x40:
+            cfg |= 2;
+            break;
+         case 0x80:
+            cfg |= 4;
+            break;
+         case 0xc0:
+            cfg |= 8;
+            break;
+         }
+         chord <<= 2;
+      }
+      return cfg;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   private static int calcFingers(int value) {
+      int fingers = 0;
+      for (int finger = 0; finger < Finger.count(); ++finger) {
+         if (getFingerPosition(finger, value) != 0) {
+            ++fingers;
+         }
+      }
+      return fingers;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   private static int calcFingerGaps(int value) {
+      int gaps = 0;
+      int gapSize = 0;
+      boolean started = false;
+      for (int finger = 0; finger < Finger.count(); ++finger) {
+         if (getFingerPosition(finger, value) == 0) {
+            ++gapSize;
+         } else {
+            if (started) {
+               gaps += gapSize;
+            }
+            started = true;
+            gapSize = 0;
+         }
+      }
+      return gaps;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // A bit for each position any finger is at.
+   private static int calcPositionsUsed(int value) {
+      int used = 0;
+      for (int finger = 0; finger < Finger.count(); ++finger) {
+         used |= 1 << getFingerPosition(finger, value);
+      }
+      return used;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   private static int calcPositionGaps(int value) {
+      int gaps = 0;
+      int lastPosition = 0;
+      int lastFinger = 0;
+      for (int finger = 0; finger < Finger.count(); ++finger) {
+         int position = getFingerPosition(finger, value);
+         if (position != 0) {
+            if (lastPosition != 0) {
+               gaps += Math.abs(position - lastPosition) * 6 
+                     / (finger - lastFinger);
+            }
+            lastPosition = position;
+            lastFinger = finger;
+         }
+      }
+      return gaps;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   private static String calcString(int value, boolean fourFinger) {
+      if (value > sm_VALUES) {
+         Position p = Position.fromInt(getFingerPosition(sm_MOUSE_FINGER, value));
+         return fourFinger ? p.m_Name : p.m_0mrl;
+      }
+      String str = "";
+      for (int finger = 0; finger < 4; ++finger) {
+         Position p = Position.fromInt(getFingerPosition(finger, value));
+         str += fourFinger ? p.m_Name : p.m_0mrl;
+      }
+      return str;
    }
 
    /////////////////////////////////////////////////////////////////////////////
@@ -451,18 +530,27 @@ public class Chord {
 
    // Data /////////////////////////////////////////////////////////////////////
    private static final int sm_MOUSE_FINGER = 4;
+   private static final Chord[] sm_CHORDS = createAll();
    private static boolean sm_4Finger = true;
    private static int m_Keys;
    private static int m_Depth;
    private static int m_PositionSpace;
    private static int m_FingerSpace;
    private static boolean m_Eccentric;
-   private int m_Value;
+   private final int m_Value;
+   private final int m_Fingers;
+   private final int m_FingerGaps;
+   private final int m_PositionsUsed;
+   private final int m_PositionGaps;
+   private final int m_Reversed;
+   private final int m_Cfg;
+   private final String m_Name;
+   private final String m_0mrl;
 
    // Main /////////////////////////////////////////////////////////////////////
    public static void main (String[] args) {
       for (String arg: args) {
-         Chord c = new Chord(arg);
+         Chord c = fromInt(fromString(arg));
          System.out.printf("New %s 0x%04x%n", c, Io.otherEndian((short)c.toCfg()));
          System.out.printf("New %s 0x%04x%n", c, c.toCfg());
 //         calculateImpediments(chord);
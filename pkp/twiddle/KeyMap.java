@@ -2,18 +2,24 @@
  * Copyright 2015 Pushkar Piggott
  *
  * KeyMap.java
+ *
+ * The KeyPressLists of the assignments are held in a trie of arrays,
+ * so the longest one that prefixes some keystrokes is found in one
+ * walk along them. The children of each node are contiguous and sorted
+ * by the key code with modifiers of their keystroke, for binary search.
  */
 
 package pkp.twiddle;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.awt.event.KeyEvent;
 import java.io.File;
 import java.net.URL;
 import java.net.MalformedURLException;
 import pkp.lookup.LookupTable;
 import pkp.lookup.LookupTableBuilder;
-import pkp.lookup.LookupBuilder.Duplicates;
 import pkp.io.LineReader;
 import pkp.io.Io;
 import pkp.util.Pref;
@@ -43,29 +49,18 @@ public class KeyMap {
 
    ////////////////////////////////////////////////////////////////////////////
    public Assignment findLongestPrefix(KeyPressList kpl) {
-      if (kpl.size() == 0) {
-         return null;
-      }
-      KeyPress kp0 = kpl.get(0);
-      int asgIndex[] = m_KeyPressIndex.getAll(kp0.getKeyCode(), kp0.getModifiers().toInt());
-      if (asgIndex == null) {
-         return null;
-      } 
-      // only one assignment can match a given prefix
-      int maxI = -1;
-      int maxLen = 0;
-      for (int i = 1; i < asgIndex[0]; ++i) {
-         KeyPressList found = m_Assignments.get(asgIndex[i]).getKeyPressList();
-//System.out.println("keymap findLongestPrefix kpl found " + found.toString());
-         if (kpl.startsWith(found) && found.size() > maxLen) {
-            maxLen = found.size();
-            maxI = i;
+      Assignment longest = null;
+      int node = 0;
+      for (int i = 0; i < kpl.size(); ++i) {
+         node = findChild(node, kpl.toKeyCode(i));
+         if (node == -1) {
+            break;
+         }
+         if (m_TrieAssignment[node] != -1) {
+            longest = m_Assignments.get(m_TrieAssignment[node]);
          }
       }
-      if (maxI < 0) {
-         return null;
-      }
-      return m_Assignments.get(asgIndex[maxI]);
+      return longest;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -100,7 +95,6 @@ public class KeyMap {
    ////////////////////////////////////////////////////////////////////////////
    private KeyMap() {
       m_Assignments = new Assignments();
-      m_KeyPressIndex = null;
       m_TwiddleIndex = null;
    }
 
@@ -127,10 +121,6 @@ public class KeyMap {
 
    ////////////////////////////////////////////////////////////////////////////
    private void index() {
-      // A = 0x04, NumpadEqual = 0x67
-      LookupTableBuilder keyPressLtb = new LookupTableBuilder(0, 0x67);
-      keyPressLtb.setMessage(" building the keystroke table.");
-      keyPressLtb.setDuplicates(Duplicates.STORE);
       LookupTableBuilder twiddleLtb = new LookupTableBuilder(1, Chord.sm_VALUES);
       twiddleLtb.setMessage(" building the chord table.");
       ArrayList<Twiddle> dup = new ArrayList<Twiddle>();
@@ -142,8 +132,6 @@ public class KeyMap {
                dup.add(tw);
             }
          }
-         KeyPress kp = asg.getKeyPressList().get(0);
-         keyPressLtb.add(kp.getKeyCode(), kp.getModifiers().toInt(), i);
       }
       if (dup.size() > 0) {
          String str = "";
@@ -152,14 +140,111 @@ public class KeyMap {
          }
          Log.warn("<html><tt>" + str + "</tt>mapped more than once.</html>");
       }
-      m_KeyPressIndex = keyPressLtb.build();
       m_TwiddleIndex = twiddleLtb.build();
+      buildTrie();
   }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Sorts the KeyPressLists, each before those it prefixes and equal ones
+   // in order, and lays out the trie from them. Node 0 is the root.
+   private void buildTrie() {
+      Integer[] sorted = new Integer[m_Assignments.size()];
+      int nodes = 1;
+      for (int i = 0; i < sorted.length; ++i) {
+         sorted[i] = i;
+         nodes += m_Assignments.get(i).getKeyPressList().size();
+      }
+      Arrays.sort(sorted, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            KeyPressList ka = m_Assignments.get(a).getKeyPressList();
+            KeyPressList kb = m_Assignments.get(b).getKeyPressList();
+            int size = Math.min(ka.size(), kb.size());
+            for (int i = 0; i < size; ++i) {
+               int c = Integer.compare(ka.toKeyCode(i), kb.toKeyCode(i));
+               if (c != 0) {
+                  return c;
+               }
+            }
+            return ka.size() != kb.size()
+                 ? Integer.compare(ka.size(), kb.size())
+                 : Integer.compare(a, b);
+         }
+      });
+      m_TrieKeys = new int[nodes];
+      m_TrieFirst = new int[nodes];
+      m_TrieEnd = new int[nodes];
+      m_TrieAssignment = new int[nodes];
+      m_TrieAssignment[0] = -1;
+      m_TrieSize = 1;
+      buildTrie(0, sorted, 0, sorted.length, 0);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds the children of node for the sorted KeyPressLists from lo to hi,
+   // which share their first depth keystrokes, and then their children.
+   // Only the first of equal KeyPressLists is kept, and an empty one
+   // never matches.
+   private void buildTrie(int node, Integer[] sorted, int lo, int hi, int depth) {
+      for (; lo < hi && m_Assignments.get(sorted[lo]).getKeyPressList().size() == depth; ++lo) {
+         if (depth > 0 && m_TrieAssignment[node] == -1) {
+            m_TrieAssignment[node] = sorted[lo];
+         }
+      }
+      int children = 0;
+      for (int i = lo; i < hi; ++i) {
+         if (i == lo || getTrieKey(sorted[i], depth) != getTrieKey(sorted[i - 1], depth)) {
+            ++children;
+         }
+      }
+      int child = m_TrieSize;
+      m_TrieFirst[node] = child;
+      m_TrieEnd[node] = child + children;
+      m_TrieSize += children;
+      for (int start = lo; start < hi; ++child) {
+         int key = getTrieKey(sorted[start], depth);
+         int end = start + 1;
+         while (end < hi && getTrieKey(sorted[end], depth) == key) {
+            ++end;
+         }
+         m_TrieKeys[child] = key;
+         m_TrieAssignment[child] = -1;
+         buildTrie(child, sorted, start, end, depth + 1);
+         start = end;
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private int getTrieKey(int asg, int depth) {
+      return m_Assignments.get(asg).getKeyPressList().toKeyCode(depth);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Returns the child of node reached by key, or -1.
+   private int findChild(int node, int key) {
+      int lo = m_TrieFirst[node];
+      int hi = m_TrieEnd[node];
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (m_TrieKeys[mid] < key) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo < m_TrieEnd[node] && m_TrieKeys[lo] == key ? lo : -1;
+   }
+
+
    // Data ////////////////////////////////////////////////////////////////////
    private Assignments m_Assignments;
-   private LookupTable m_KeyPressIndex;
    private LookupTable m_TwiddleIndex;
+   // the keystroke into each node, the range of its children and the
+   // assignment whose KeyPressList ends there, or -1
+   private int[] m_TrieKeys;
+   private int[] m_TrieFirst;
+   private int[] m_TrieEnd;
+   private int[] m_TrieAssignment;
+   private int m_TrieSize;
 
    // Main ////////////////////////////////////////////////////////////////////
    public static void main(String[] args) {
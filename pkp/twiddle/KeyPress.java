@@ -2,13 +2,26 @@
  * Copyright 2015 Pushkar Piggott
  *
  * KeyPress.java
+ *
+ * KeyPresses never change, so each key code with its modifiers is made
+ * once, when first wanted after init(), and shared.
  */
 
 package pkp.twiddle;
 
 import java.awt.event.MouseEvent;
 import java.awt.event.KeyEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
+import java.util.zip.CRC32;
 import java.net.URL;
 import pkp.lookup.LookupSet;
 import pkp.lookup.LookupSetBuilder;
@@ -29,6 +42,8 @@ public class KeyPress {
 
    ////////////////////////////////////////////////////////////////////////////
    static final int sm_KEYCODE_BITS = 8;
+   // a legal empty kp (!isValid())
+   public static final KeyPress sm_EMPTY = new KeyPress(0, Modifiers.sm_EMPTY);
 
    ////////////////////////////////////////////////////////////////////////////
    public static LookupSet getDuplicate() {
@@ -61,109 +76,33 @@ public class KeyPress {
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   // Load the conversion tables.
+   // Load the conversion tables, from the snapshot saved the last time
+   // if the pref files they are parsed from are the same.
    public static void init() {
       sm_Warned = false;
+      sm_Rendered = new String[Format.values().length * 2][];
+      sm_Interned = new KeyPress[1 << 2 * sm_KEYCODE_BITS];
       String str = Pref.get("#.file.format", Format.STD.name());
       sm_FileFormat = Format.valueOf(str.toUpperCase());
       str = Pref.get("#.display.format", Format.STD.name());
       sm_DisplayFormat = Format.valueOf(str.toUpperCase());
-      final Io.StringToIntsErr escKeyEscCharSwap = new Io.StringToIntsErr() {
-                                       public int[] cvt(String str, StringBuilder err) {
-                                          int key = escKeyToInt(str, err);
-                                          if (key == Io.sm_PARSE_FAILED) {
-                                             return new int[]{key, key};
-                                          }
-                                          int value = Io.parseEscape1(str.substring(6).trim(), err);
-                                          return new int[]{value, key};
-                                       }
-                                    };
-      final Io.StringToIntsErr escKeyPos0xFFFF = new Io.StringToIntsErr() {
-                                       public int[] cvt(String str, StringBuilder err) {
-                                          int key = escKeyToInt(str, err);
-                                          if (key == Io.sm_PARSE_FAILED) {
-                                             return new int[]{key, key};
-                                          }
-                                          int value = Io.toPosInt(0xFFFF, str.substring(6).trim(), err);
-                                          return new int[]{key, value};
-                                       }
-                                    };
-      final Io.StringToIntsErr escKeyPos0xFFFFSwap = new Io.StringToIntsErr() {
-                                       public int[] cvt(String str, StringBuilder err) {
-                                          int key = escKeyToInt(str, err);
-                                          if (key == Io.sm_PARSE_FAILED) {
-                                             return new int[]{key, key};
-                                          }
-                                          int value = Io.toPosInt(0xFFFF, str.substring(6).trim(), err);
-                                          return new int[]{value, key};
-                                       }
-                                    };
-      final Io.StringToIntsErr escKey = new Io.StringToIntsErr() {
-                                       public int[] cvt(String str, StringBuilder err) {
-                                          int key = escKeyToInt(str, err);
-                                          if (key == Io.sm_PARSE_FAILED) {
-                                             return new int[]{key, key};
-                                          }
-                                          return new int[]{key & 255, key >> 8};
-                                       }
-                                    };
-      final Io.StringToIntsErr escChar = new Io.StringToIntsErr() {
-                                       public int[] cvt(String str, StringBuilder err) {
-                                          return new int[]{Io.parseEscape1(str, err)};
-                                       }
-                                    };
-      final Io.StringToIntErr escKey1 = new Io.StringToIntErr() {
-                                       public int cvt(String str, StringBuilder err) {
-                                          return escKeyToInt(str, err);
-                                       }
-                                    };
-      sm_KeyValueToCode = LookupTableBuilder.read(
-         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.value.keys"),
-         Io.sm_MUST_EXIST,
-         Duplicates.OVERWRITE,
-         1, 0x7F,
-         escKeyEscCharSwap);
-      LookupTable codeToKeyEvent = LookupTableBuilder.read(
-         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.event.keys"),
-         Io.sm_MUST_EXIST,
-         Duplicates.ERROR,
-         0x10, 0x7F,
-         escKeyPos0xFFFF);
-      sm_KeyEventToCode = LookupTableBuilder.read(
-         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.event.keys"),
-         Io.sm_MUST_EXIST,
-         Duplicates.ERROR,
-         0x10, 0x7F,
-         escKeyPos0xFFFFSwap);
-      sm_KeyCodeToName = (new StringsIntsBuilder(
-         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.name.keys"), 
-         escKey1, 
-         Io.sm_SINGLE_VALUE)).build();
-      // unprintables are mostly < 0x20
-      sm_UnprintableAscii = LookupSetBuilder.read(
-         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.unprintable.ascii"),
-         Io.sm_MUST_EXIST,
-         0, 0x20, 
-         escChar);
-      // duplicates are mostly numpad keys
-      sm_Duplicate = LookupSetBuilder.read(
-         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.duplicate.keys"),
-         Io.sm_MUST_EXIST,
-         0x54, 0x70, 
-         escKey);
-//System.out.println(sm_Duplicate);
-      sm_Lost = LookupSetBuilder.read(
-         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.lost.keys"),
-         Io.sm_MUST_EXIST,
-         0x1, 0x0,
-         escKey);
-//System.out.println(sm_Lost);
-      int[] kcv = readKeyCodeValues(Persist.getExistDirJarUrl("#.pref.dir", "twidlit.value.keys"));
+      File snapshot = null;
+      long checksum = 0;
+      if (Pref.getBool("#.keys.snapshot", true)) {
+         snapshot = new File(Persist.getFolderName(), sm_SNAPSHOT_FILE_NAME);
+         checksum = getChecksum();
+      }
+      if (snapshot == null || !readSnapshot(snapshot, checksum)) {
+         parseTables();
+         if (snapshot != null) {
+            writeSnapshot(snapshot, checksum);
+         }
+      }
       sm_KeyCodeToValue = new HashMap<Integer, Character>(0x80);
-      for (int i = 0; kcv[i] > 0; i += 2) {
-         sm_KeyCodeToValue.put(kcv[i], (char)kcv[i + 1]);
+      for (int i = 0; sm_KeyCodeValues[i] > 0; i += 2) {
+         sm_KeyCodeToValue.put(sm_KeyCodeValues[i], (char)sm_KeyCodeValues[i + 1]);
       }
-      Modifiers.init(sm_KeyCodeToName, codeToKeyEvent.get(0x800));
+      Modifiers.init(sm_KeyCodeToName, sm_ModifiersKeyEvent);
 
       sm_MouseButtonCodes = new int[3];
       for (int i = 0; i < 3; ++i) {
@@ -175,12 +114,24 @@ public class KeyPress {
 
    ////////////////////////////////////////////////////////////////////////////
    public static KeyPress noModifiers(int keyCode) {
-      return new KeyPress(keyCode, Modifiers.sm_EMPTY);
+      return fromKeyCode(keyCode, Modifiers.sm_EMPTY);
    }
    
    ////////////////////////////////////////////////////////////////////////////
    public static KeyPress fromKeyCode(int keyCode) {
-      return new KeyPress(keyCode & sm_KEYS, Modifiers.fromKeyCode(keyCode));
+      return fromKeyCode(keyCode & sm_KEYS, Modifiers.fromKeyCode(keyCode));
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The KeyPress for a key code with modifiers from toKeyCode(), which was
+   // checked when made.
+   static KeyPress fromCheckedKeyCode(int keyCode) {
+      KeyPress[] interned = sm_Interned;
+      KeyPress kp = interned == null ? null : interned[keyCode];
+      if (kp == null) {
+         kp = new KeyPress(keyCode & sm_KEYS, Modifiers.fromKeyCode(keyCode));
+      }
+      return kp;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -188,7 +139,7 @@ public class KeyPress {
       if (m == null) {
          return k;
       }
-      return new KeyPress(k.getKeyCode(), m.getModifiers());
+      return fromKeyCode(k.getKeyCode(), m.getModifiers());
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -196,7 +147,7 @@ public class KeyPress {
       if (button < 1 || button > 3) {
          Log.err(String.format("Expected mouse button in [1..3], found %d.", button));
       }
-      return new KeyPress(sm_MouseButtonCodes[button - 1], Modifiers.sm_EMPTY);
+      return fromKeyCode(sm_MouseButtonCodes[button - 1], Modifiers.sm_EMPTY);
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -205,34 +156,28 @@ public class KeyPress {
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   // a legal empty kp (!isValid())
-   public KeyPress() {
-      m_KeyCode = 0;
-      m_Modifiers = Modifiers.sm_EMPTY;
-   }
-
-   ////////////////////////////////////////////////////////////////////////////
-   public KeyPress(int keyCode, Modifiers modifiers) {
+   // Returns the shared KeyPress, or sm_EMPTY if keyCode is not a key.
+   static KeyPress fromKeyCode(int keyCode, Modifiers modifiers) {
 //System.out.printf("KeyPress(k 0x%x m 0x%x)%n", keyCode, modifiers.toInt());
       if (keyCode < 0) {
-         m_KeyCode = 0;
-         m_Modifiers = Modifiers.sm_EMPTY;
-         return;
+         return sm_EMPTY;
       }
+      // don't allow modifiers in keycode
       if (keyCode > sm_KEYS) {
          Log.err(String.format("KeyCode (0x%x) includes modifiers", keyCode));
-         m_KeyCode = 0;
-         m_Modifiers = Modifiers.sm_EMPTY;
-         return;
+         return sm_EMPTY;
       }
-      // don't allow modifiers in keycode
-      m_KeyCode = keyCode & sm_KEYS;
-      m_Modifiers = modifiers;
-      // catch unnamed keys early
-      if (toString() == null) {
-         m_KeyCode = 0;
-         m_Modifiers = Modifiers.sm_EMPTY;
+      KeyPress[] interned = sm_Interned;
+      if (interned == null) {
+         return create(keyCode, modifiers);
       }
+      int i = modifiers.toInt() << sm_KEYCODE_BITS | keyCode;
+      KeyPress kp = interned[i];
+      if (kp == null) {
+         kp = create(keyCode, modifiers);
+         interned[i] = kp;
+      }
+      return kp;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -254,12 +199,23 @@ public class KeyPress {
 
    ////////////////////////////////////////////////////////////////////////////
    public static KeyPress parseTag(String tag, Modifiers modifiers, StringBuilder err) {
-      if (tag == null || "".equals(tag)) {
-         return new KeyPress();
+      if (tag == null) {
+         return sm_EMPTY;
+      }
+      return parseTag(tag, 0, tag.length(), modifiers, err);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Parses the tag from start to end of str, without copying it unless
+   // it is a number or fails.
+   static KeyPress parseTag(CharSequence str, int start, int end, Modifiers modifiers, StringBuilder err) {
+      if (start >= end) {
+         return sm_EMPTY;
       }
-      char c0 = tag.charAt(0);
+      char c0 = str.charAt(start);
 //System.out.printf("kp parseTag tag %s c0 %c\n", tag, c0);
       if ('0' <= c0 && c0 <= '9') {
+         String tag = str.subSequence(start, end).toString();
 //System.out.printf("tag %s c0 %c\n", tag, c0);
          if (tag.length() > 1 && tag.substring(0, 2).equals("0x")) {
             return parseText((char)Integer.parseInt(tag.substring(2), 16), modifiers, err);
@@ -268,32 +224,32 @@ public class KeyPress {
       }
       boolean closing = (c0 == '/');
       if (closing) {
-         tag = tag.substring(1);
+         ++start;
       }
-      int keyCode = sm_KeyCodeToName.getInt(tag, 0);
+      int keyCode = sm_KeyCodeToName.getInt(str, start, end, 0);
       if (isMouseButton(keyCode)) {
          Log.warn(err, "Unsupported mouse button tag");
-         return new KeyPress();
+         return sm_EMPTY;
       }
       Modifiers mod = Modifiers.fromKeyCode(keyCode);
 //System.out.printf("parseTag: keyCode 0x%x modifiers 0x%x tag %s mod 0x%x\n", keyCode, modifiers.toInt(), tag, mod.toInt());
       if (mod.isEmpty()) {
          if (closing) {
-            Log.warn(err, "Unrecognized closing modifier: \"" + tag + "\"");
-            return new KeyPress();
+            Log.warn(err, "Unrecognized closing modifier: \"" + str.subSequence(start, end) + "\"");
+            return sm_EMPTY;
          } else if ((keyCode & sm_KEYS) == 0) {
-            Log.warn(err, "Unrecognized tag: \"" + tag + "\"");
-            return new KeyPress();
+            Log.warn(err, "Unrecognized tag: \"" + str.subSequence(start, end) + "\"");
+            return sm_EMPTY;
          }
       } else if (closing) {
          modifiers = modifiers.minus(mod);
 			if (modifiers.isEmpty()) {
-				return new KeyPress(0, Modifiers.sm_END);
+				return fromKeyCode(0, Modifiers.sm_END);
 			}
       } else {
          modifiers = modifiers.plus(mod);
       }
-      return new KeyPress(keyCode & sm_KEYS, modifiers);
+      return fromKeyCode(keyCode & sm_KEYS, modifiers);
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -302,10 +258,10 @@ public class KeyPress {
       int keyCodeWithShift = sm_KeyValueToCode.get(ch);
 		if (keyCodeWithShift < 0) {
          Log.warn(err, "\"" + ch + "\" has no code");
-         return new KeyPress();
+         return sm_EMPTY;
       }
 //System.out.printf("parseText |%c| (%d) -> 0x%x (mod 0x%x)\n", ch, (int)ch, keyCodeWithShift, mod.toInt());
-      return new KeyPress(keyCodeWithShift & sm_KEYS,
+      return fromKeyCode(keyCodeWithShift & sm_KEYS,
                           Modifiers.fromKeyCode(keyCodeWithShift).plus(mod));
    }
 
@@ -326,7 +282,7 @@ public class KeyPress {
    ////////////////////////////////////////////////////////////////////////////
    public static KeyPress parse(StringWithOffset swo, Modifiers mod, StringBuilder err) {
 //System.out.printf("KeyPress parse(%s, %d, '%s')%n", swo.getString(), swo.getOffset(), mod);
-      String str = swo.getString();
+      CharSequence str = swo.getChars();
       int start = swo.getOffset();
       char c0 = str.charAt(start);
       if (c0 != '\\' || start >= str.length() - 1) {
@@ -335,22 +291,22 @@ public class KeyPress {
       } else {
          char c1 = str.charAt(start + 1);
          if (c1 != 'k') {
-            int ch = Io.parseEscapeFirst(str.substring(start), err);
+            int ch = Io.parseEscapeFirst(str, start, err);
             if (ch == Io.sm_PARSE_FAILED) {
                // error at EOL, already warned
                swo.setOffsetToEnd();
-               return new KeyPress();
+               return sm_EMPTY;
             }
             swo.setOffset(start + ((c1 == 'x') ? 4 : 2));
             return KeyPress.parseText((char)ch, mod, err);
          } else if (start + 6 > str.length()) {
-            Log.warn(err, '"' + str.substring(start) + "\" is too short");
-            return new KeyPress();
+            Log.warn(err, "\"" + str.subSequence(start, str.length()) + "\" is too short");
+            return sm_EMPTY;
          } else {   
-            int k = Io.toIntWarnParse(str.substring(start + 2, start + 6), 16, err);
-//System.out.printf("parseTextAndTags2 %s, %d%n", str.substring(start + 2, start + 6), k);
+            int k = Io.toIntWarnParse(str, start + 2, start + 6, 16, err);
+//System.out.printf("parseTextAndTags2 %s, %d%n", str.subSequence(start + 2, start + 6), k);
             swo.setOffset(start + 6);
-            return new KeyPress(k & sm_KEYS, mod.plus(Modifiers.fromKeyCode(k)));
+            return fromKeyCode(k & sm_KEYS, mod.plus(Modifiers.fromKeyCode(k)));
          }
       }
    }
@@ -360,9 +316,9 @@ public class KeyPress {
       int mouseCode = sm_KeyEventToCode.get(me.getButton());
       if (mouseCode < 0) {
          Log.log(String.format("Mouse event button code %d has no key code.", me.getButton()));
-         return new KeyPress();
+         return sm_EMPTY;
       }
-      return new KeyPress(mouseCode & sm_KEYS, Modifiers.fromKeyCode(0));
+      return fromKeyCode(mouseCode & sm_KEYS, Modifiers.fromKeyCode(0));
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -371,22 +327,38 @@ public class KeyPress {
 //System.out.printf("java key code 0x%x -> 0x%x side %d%n", ke.getKeyCode(), sm_KeyEventToCode.get(ke.getKeyCode()), ke.getKeyLocation());
       if (keyCode < 0) {
          Log.log(String.format("Key event code %d has no key code.", ke.getKeyCode()));
-         return new KeyPress();
+         return sm_EMPTY;
       }
-      return new KeyPress(keyCode & sm_KEYS, Modifiers.fromKeyEvent(ke));
+      return fromKeyCode(keyCode & sm_KEYS, Modifiers.fromKeyEvent(ke));
    }
 
    ////////////////////////////////////////////////////////////////////////////
+   // The same key code with equal modifiers.
    public boolean equals(KeyPress kp) {
 //System.out.printf("0x%x != 0x%x || 0x%x != 0x%x%n", m_KeyCode, kp.m_KeyCode, m_Modifiers.toInt(), kp.m_Modifiers.toInt());
-      return m_KeyCode == kp.m_KeyCode
-          && m_Modifiers.equals(kp.m_Modifiers);
+      return kp == this
+          || (m_KeyCode == kp.m_KeyCode
+           && m_Modifiers.equals(kp.m_Modifiers));
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public boolean equals(Object o) {
+      return o instanceof KeyPress && equals((KeyPress)o);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public int hashCode() {
+      return m_Modifiers.hashCode() << sm_KEYCODE_BITS | m_KeyCode;
    }
 
    ////////////////////////////////////////////////////////////////////////////
    public String toString() { return toString(Format.FILE); }
 
    ////////////////////////////////////////////////////////////////////////////
+   // Each key with modifiers is rendered once per format and kept,
+   // unless it is an error, which is logged each time.
    public String toString(Format format) {
       boolean file = false;
       if (format == Format.DISPLAY) {
@@ -397,6 +369,69 @@ public class KeyPress {
          format = sm_FileFormat;
       }
 //System.out.println(format.name());
+      int i = toInt();
+      if (m_KeyCode <= 0 || m_KeyCode > sm_KEYS || (i & ~0xFFFF) != 0) {
+         return render(format, file);
+      }
+      int f = format.ordinal() * 2 + (file ? 1 : 0);
+      String[] rendered = sm_Rendered[f];
+      if (rendered == null) {
+         rendered = new String[0x10000];
+         sm_Rendered[f] = rendered;
+      } else if (rendered[i] != null) {
+         return rendered[i];
+      }
+      String str = render(format, file);
+      if (str != sm_DUPLICATE && str != sm_NO_NAME_OR_VALUE) {
+         rendered[i] = str;
+      }
+      return str;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public boolean is(LookupSet s) {
+      return s.isSingleKeyed()
+           ? s.is(m_KeyCode)
+           : s.is(m_KeyCode, m_Modifiers.toLeft().toInt());
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public static void clearWarned() { sm_Warned = false; }
+   public boolean isKey() { return m_KeyCode != 0; }
+   public boolean isValid() { return isKey() || !m_Modifiers.isEmpty(); }
+   public boolean isModifiers() { return m_KeyCode == 0; }
+   public boolean isDuplicate() { return sm_Duplicate.is(m_KeyCode); }
+   public boolean isLost() { return sm_Lost.is(m_KeyCode, m_Modifiers.toLeft().toInt()); }
+   public boolean isCtrl() { return m_Modifiers.isCtrl(); }
+   public boolean isShift() { return m_Modifiers.isShift(); }
+   public boolean isAlt() { return m_Modifiers.isAlt(); }
+   public boolean isGui() { return m_Modifiers.isGui(); }
+   public int toInt() { return m_Modifiers.toKeyCode() + m_KeyCode; }
+   // The key code with the modifiers in the 8 bits above it, as the
+   // argument of fromKeyCode(int).
+   int toKeyCode() { return m_Modifiers.toInt() << sm_KEYCODE_BITS | m_KeyCode; }
+
+   int getKeyCode() { return m_KeyCode; }
+   Modifiers getModifiers() { return m_Modifiers; }
+
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   private KeyPress(int keyCode, Modifiers modifiers) {
+      m_KeyCode = keyCode;
+      m_Modifiers = modifiers;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static KeyPress create(int keyCode, Modifiers modifiers) {
+      KeyPress kp = new KeyPress(keyCode, modifiers);
+      // catch unnamed keys early
+      return kp.toString() == null ? sm_EMPTY : kp;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // format is neither DISPLAY nor FILE.
+   private String render(Format format, boolean file) {
       if (format == Format.HEX) {
          return String.format("\\k%04x", toInt());
       }
@@ -412,9 +447,9 @@ public class KeyPress {
       }
       if (sm_Duplicate.is(m_KeyCode)) {
          Log.log(String.format("Key 0x%x is a duplicate", m_KeyCode));
-         return "duplicate";
+         return sm_DUPLICATE;
       }
-      Modifiers modifiers = new Modifiers(m_Modifiers);
+      Modifiers modifiers = m_Modifiers;
       Character keyValue = null;
       if (isShift()) {
          // attempt to convert to shifted value
@@ -439,7 +474,7 @@ public class KeyPress {
                Log.err(String.format("One or more mapped key codes have no name or value (see log for details)."));
             }
             Log.log(String.format("Key \\x%x has no name or value", m_KeyCode));
-            return "no name or value";
+            return sm_NO_NAME_OR_VALUE;
          }
       }
       if (format == Format.TAG
@@ -467,43 +502,209 @@ public class KeyPress {
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   public boolean is(LookupSet s) {
-      return s.isSingleKeyed()
-           ? s.is(m_KeyCode)
-           : s.is(m_KeyCode, m_Modifiers.toLeft().toInt());
+   private static String keyCodeToTagString(int i) {
+      String str = sm_KeyCodeToName.getString(i, "");
+      if (!"".equals(str)) {
+         return '<' + str + '>';
+      }
+      return "0x" + Integer.toHexString((char)i);
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   public static void clearWarned() { sm_Warned = false; }
-   public boolean isKey() { return m_KeyCode != 0; }
-   public boolean isValid() { return isKey() || !m_Modifiers.isEmpty(); }
-   public boolean isModifiers() { return m_KeyCode == 0; }
-   public boolean isDuplicate() { return sm_Duplicate.is(m_KeyCode); }
-   public boolean isLost() { return sm_Lost.is(m_KeyCode, m_Modifiers.toLeft().toInt()); }
-   public boolean isCtrl() { return m_Modifiers.isCtrl(); }
-   public boolean isShift() { return m_Modifiers.isShift(); }
-   public boolean isAlt() { return m_Modifiers.isAlt(); }
-   public boolean isGui() { return m_Modifiers.isGui(); }
-   public int toInt() { return m_Modifiers.toKeyCode() + m_KeyCode; }
-
-   int getKeyCode() { return m_KeyCode; }
-   Modifiers getModifiers() { return m_Modifiers; }
+   // Parses the conversion tables from the pref files.
+   private static void parseTables() {
+      final Io.StringToIntsErr escKeyEscCharSwap = new Io.StringToIntsErr() {
+                                       public int[] cvt(String str, StringBuilder err) {
+                                          int key = escKeyToInt(str, err);
+                                          if (key == Io.sm_PARSE_FAILED) {
+                                             return new int[]{key, key};
+                                          }
+                                          int value = Io.parseEscape1(str.substring(6).trim(), err);
+                                          return new int[]{value, key};
+                                       }
+                                    };
+      final Io.StringToIntsErr escKeyPos0xFFFF = new Io.StringToIntsErr() {
+                                       public int[] cvt(String str, StringBuilder err) {
+                                          int key = escKeyToInt(str, err);
+                                          if (key == Io.sm_PARSE_FAILED) {
+                                             return new int[]{key, key};
+                                          }
+                                          int value = Io.toPosInt(0xFFFF, str.substring(6).trim(), err);
+                                          return new int[]{key, value};
+                                       }
+                                    };
+      final Io.StringToIntsErr escKeyPos0xFFFFSwap = new Io.StringToIntsErr() {
+                                       public int[] cvt(String str, StringBuilder err) {
+                                          int key = escKeyToInt(str, err);
+                                          if (key == Io.sm_PARSE_FAILED) {
+                                             return new int[]{key, key};
+                                          }
+                                          int value = Io.toPosInt(0xFFFF, str.substring(6).trim(), err);
+                                          return new int[]{value, key};
+                                       }
+                                    };
+      final Io.StringToIntsErr escKey = new Io.StringToIntsErr() {
+                                       public int[] cvt(String str, StringBuilder err) {
+                                          int key = escKeyToInt(str, err);
+                                          if (key == Io.sm_PARSE_FAILED) {
+                                             return new int[]{key, key};
+                                          }
+                                          return new int[]{key & 255, key >> 8};
+                                       }
+                                    };
+      final Io.StringToIntsErr escChar = new Io.StringToIntsErr() {
+                                       public int[] cvt(String str, StringBuilder err) {
+                                          return new int[]{Io.parseEscape1(str, err)};
+                                       }
+                                    };
+      final Io.StringToIntErr escKey1 = new Io.StringToIntErr() {
+                                       public int cvt(String str, StringBuilder err) {
+                                          return escKeyToInt(str, err);
+                                       }
+                                    };
+      sm_KeyValueToCode = LookupTableBuilder.read(
+         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.value.keys"),
+         Io.sm_MUST_EXIST,
+         Duplicates.OVERWRITE,
+         1, 0x7F,
+         escKeyEscCharSwap);
+      LookupTable codeToKeyEvent = LookupTableBuilder.read(
+         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.event.keys"),
+         Io.sm_MUST_EXIST,
+         Duplicates.ERROR,
+         0x10, 0x7F,
+         escKeyPos0xFFFF);
+      sm_KeyEventToCode = LookupTableBuilder.read(
+         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.event.keys"),
+         Io.sm_MUST_EXIST,
+         Duplicates.ERROR,
+         0x10, 0x7F,
+         escKeyPos0xFFFFSwap);
+      sm_KeyCodeToName = (new StringsIntsBuilder(
+         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.name.keys"), 
+         escKey1, 
+         Io.sm_SINGLE_VALUE)).build();
+      // unprintables are mostly < 0x20
+      sm_UnprintableAscii = LookupSetBuilder.read(
+         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.unprintable.ascii"),
+         Io.sm_MUST_EXIST,
+         0, 0x20, 
+         escChar);
+      // duplicates are mostly numpad keys
+      sm_Duplicate = LookupSetBuilder.read(
+         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.duplicate.keys"),
+         Io.sm_MUST_EXIST,
+         0x54, 0x70, 
+         escKey);
+//System.out.println(sm_Duplicate);
+      sm_Lost = LookupSetBuilder.read(
+         Persist.getExistDirJarUrl("#.pref.dir", "twidlit.lost.keys"),
+         Io.sm_MUST_EXIST,
+         0x1, 0x0,
+         escKey);
+//System.out.println(sm_Lost);
+      sm_KeyCodeValues = readKeyCodeValues(Persist.getExistDirJarUrl("#.pref.dir", "twidlit.value.keys"));
+      sm_ModifiersKeyEvent = codeToKeyEvent.get(0x800);
+   }
 
-   // Private /////////////////////////////////////////////////////////////////
+   ////////////////////////////////////////////////////////////////////////////
+   // The CRC of the pref files the tables are parsed from, or -1.
+   private static long getChecksum() {
+      CRC32 crc = new CRC32();
+      byte[] buf = new byte[8192];
+      for (String name : sm_TABLE_FILE_NAMES) {
+         URL url = Persist.getExistDirJarUrl("#.pref.dir", name);
+         try {
+            InputStream in = url.openStream();
+            int length;
+            while ((length = in.read(buf)) > 0) {
+               crc.update(buf, 0, length);
+            }
+            in.close();
+         } catch (IOException e) {
+            // parsing reports it
+            return -1;
+         }
+      }
+      return crc.getValue();
+   }
 
    ////////////////////////////////////////////////////////////////////////////
-   private KeyPress(KeyPress kp) {
-      m_KeyCode = kp.m_KeyCode;
-      m_Modifiers = kp.m_Modifiers;
-  }
+   // Loads the tables saved by writeSnapshot() in a single read.
+   // Returns false, leaving them to be parsed, if there is no snapshot
+   // or it was saved from different pref files.
+   private static boolean readSnapshot(File f, long checksum) {
+      if (checksum == -1 || !f.exists()) {
+         return false;
+      }
+      try {
+         DataInputStream in = new DataInputStream(
+                                 new ByteArrayInputStream(Files.readAllBytes(f.toPath())));
+         if (in.readInt() != sm_SNAPSHOT_MAGIC
+          || in.readInt() != sm_SNAPSHOT_VERSION
+          || in.readLong() != checksum) {
+            Log.log("Ignoring \"" + f.getPath() + "\", the key files have changed.");
+            return false;
+         }
+         LookupTable keyValueToCode = LookupTableBuilder.read(in);
+         LookupTable keyEventToCode = LookupTableBuilder.read(in);
+         StringsInts keyCodeToName = StringsInts.read(in);
+         LookupSet unprintableAscii = LookupSetBuilder.read(in);
+         LookupSet duplicate = LookupSetBuilder.read(in);
+         LookupSet lost = LookupSetBuilder.read(in);
+         int[] keyCodeValues = new int[in.readInt()];
+         for (int i = 0; i < keyCodeValues.length; ++i) {
+            keyCodeValues[i] = in.readInt();
+         }
+         int modifiersKeyEvent = in.readInt();
+         if (in.read() != -1) {
+            throw new IOException("Unexpected data at end");
+         }
+         sm_KeyValueToCode = keyValueToCode;
+         sm_KeyEventToCode = keyEventToCode;
+         sm_KeyCodeToName = keyCodeToName;
+         sm_UnprintableAscii = unprintableAscii;
+         sm_Duplicate = duplicate;
+         sm_Lost = lost;
+         sm_KeyCodeValues = keyCodeValues;
+         sm_ModifiersKeyEvent = modifiersKeyEvent;
+         return true;
+      } catch (IOException | RuntimeException e) {
+         Log.log("Ignoring \"" + f.getPath() + "\": " + e);
+         return false;
+      }
+   }
 
    ////////////////////////////////////////////////////////////////////////////
-   private static String keyCodeToTagString(int i) {
-      String str = sm_KeyCodeToName.getString(i, "");
-      if (!"".equals(str)) {
-         return '<' + str + '>';
+   private static void writeSnapshot(File f, long checksum) {
+      if (checksum == -1) {
+         return;
+      }
+      File tmp = new File(f.getPath() + ".tmp");
+      try {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         DataOutputStream out = new DataOutputStream(bytes);
+         out.writeInt(sm_SNAPSHOT_MAGIC);
+         out.writeInt(sm_SNAPSHOT_VERSION);
+         out.writeLong(checksum);
+         sm_KeyValueToCode.write(out);
+         sm_KeyEventToCode.write(out);
+         sm_KeyCodeToName.write(out);
+         sm_UnprintableAscii.write(out);
+         sm_Duplicate.write(out);
+         sm_Lost.write(out);
+         out.writeInt(sm_KeyCodeValues.length);
+         for (int kcv : sm_KeyCodeValues) {
+            out.writeInt(kcv);
+         }
+         out.writeInt(sm_ModifiersKeyEvent);
+         out.close();
+         Files.write(tmp.toPath(), bytes.toByteArray());
+         Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+         Log.log("Failed to save \"" + f.getPath() + "\": " + e);
+         tmp.delete();
       }
-      return "0x" + Integer.toHexString((char)i);
    }
 
 	////////////////////////////////////////////////////////////////////////////
@@ -565,6 +766,20 @@ public class KeyPress {
                    "MouseMiddle",
                    "MouseRight"};
    private static final int sm_KEYS = 0xFF;
+   private static final String sm_DUPLICATE = "duplicate";
+   private static final String sm_NO_NAME_OR_VALUE = "no name or value";
+   private static final String sm_SNAPSHOT_FILE_NAME = "twidlit.keys.snapshot";
+   // "TKEY"
+   private static final int sm_SNAPSHOT_MAGIC = 0x544b4559;
+   // change when the tables are parsed differently
+   private static final int sm_SNAPSHOT_VERSION = 1;
+   private static final String[] sm_TABLE_FILE_NAMES =
+      new String[]{"twidlit.value.keys",
+                   "twidlit.event.keys",
+                   "twidlit.name.keys",
+                   "twidlit.unprintable.ascii",
+                   "twidlit.duplicate.keys",
+                   "twidlit.lost.keys"};
    private static int[] sm_MouseButtonCodes;
    private static Format sm_DisplayFormat;
    private static Format sm_FileFormat;
@@ -575,10 +790,17 @@ public class KeyPress {
    private static LookupSet sm_UnprintableAscii;
    private static LookupSet sm_Duplicate;
    private static LookupSet sm_Lost;
+   // key code and value pairs ending in 0
+   private static int[] sm_KeyCodeValues;
+   private static int sm_ModifiersKeyEvent;
    private static boolean sm_Warned;
+   // by format and whether for a file, then toInt(), made as needed
+   private static String[][] sm_Rendered;
+   // by toInt(), made as needed
+   private static KeyPress[] sm_Interned;
 
-   private int m_KeyCode;
-   private Modifiers m_Modifiers;
+   private final int m_KeyCode;
+   private final Modifiers m_Modifiers;
 
    ////////////////////////////////////////////////////////////////////////////
    public static void main(String[] args) {
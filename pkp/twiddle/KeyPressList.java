@@ -2,11 +2,15 @@
  * Copyright 2015 Pushkar Piggott
  *
  * KeyPressList.java
+ *
+ * The keypresses are held as their 16 bit key codes with modifiers,
+ * so comparing lists compares arrays, and get() returns the shared
+ * KeyPress for each.
  */
 
 package pkp.twiddle;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.StringTokenizer;
 import pkp.lookup.LookupSet;
 import pkp.util.StringWithOffset;
@@ -42,29 +46,41 @@ public class KeyPressList extends java.lang.Object {
 
    ////////////////////////////////////////////////////////////////////////////
    public static KeyPressList parseTextAndTags(String str, StringBuilder err) {
+      return parseTextAndTags(str, new KeyPressList(), err);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Parses str into kpl, replacing what it held, and returns it. Text,
+   // escapes and tags are parsed in place, so only errors copy any of str.
+   public static KeyPressList parseTextAndTags(CharSequence str, KeyPressList kpl, StringBuilder err) {
 //System.out.printf("parseTextAndTags() |%s| [%c] \\x%x%n", str, str.charAt(0),  (int)str.charAt(0));
-      KeyPressList kpl = new KeyPressList();
+      kpl.m_Size = 0;
+      kpl.m_Hash = 0;
+      StringWithOffset swo = null;
       Modifiers tagMod = Modifiers.sm_EMPTY;
 		for (int i = 0; i < str.length(); ++i) {
 			KeyPress kp = null;
          char c = str.charAt(i);
          if (c != '<') {
 //System.out.printf("parseTextAndTags1 [%d] |%c| (%d) tagMod 0x%x%n", i, c, (int)c, tagMod.toInt());
-            StringWithOffset swo = new StringWithOffset(str, i);
+            if (swo == null) {
+               swo = new StringWithOffset(str, i);
+            } else {
+               swo.set(str, i);
+            }
             kp = KeyPress.parse(swo, tagMod, err);
             // for ++i will re-add 1
             i = swo.getOffset() - 1;
          } else {
-            String rest = str.substring(i + 1);
-            int end = rest.indexOf('>');
+            int end = findTagEnd(str, i + 1);
             // accept unescaped < if at EOL
-            if (end < 0 || rest.substring(0, end).indexOf('<') >= 0) {
+            if (end < 0) {
 //System.out.printf("parseTextAndTags3 [%d] |%c| (%d) tagMod 0x%x%n", i, c, (int)c, tagMod.toInt());
                kp = KeyPress.parseText(c, tagMod, err);
             } else {
-//System.out.printf("parseTextAndTags4 [%d] |%s| tagMod \\x%x%n", i, rest.substring(0, end), tagMod.toInt());
-					i += end + 1;
-               kp = KeyPress.parseTag(rest.substring(0, end), tagMod, err);
+//System.out.printf("parseTextAndTags4 [%d] |%s| tagMod \\x%x%n", i, str.subSequence(i + 1, end), tagMod.toInt());
+               kp = KeyPress.parseTag(str, i + 1, end, tagMod, err);
+					i = end;
                if (kp.isModifiers()) {
                   if (kp.getModifiers() == Modifiers.sm_END) {
                      tagMod = Modifiers.sm_EMPTY;
@@ -77,7 +93,8 @@ public class KeyPressList extends java.lang.Object {
          }
          if (!kp.isValid()) {
             Log.log(String.format("Failed to find keypress for \"%c\" [%d] in \"%s\" (%s)", c, (int)c, str, err));
-            return new KeyPressList();
+            kpl.m_Size = 0;
+            return kpl;
          }
 //System.out.printf("parseTextAndTags5 add: keycode 0x%x mod 0x%x%n", kp.getKeyCode(), kp.getModifiers().toInt());
          kpl.append(kp, str);
@@ -88,7 +105,9 @@ public class KeyPressList extends java.lang.Object {
 
    ////////////////////////////////////////////////////////////////////////////
    public KeyPressList() {
-      m_List = new ArrayList<KeyPress>();
+      m_Keys = sm_NO_KEYS;
+      m_Size = 0;
+      m_Hash = 0;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -107,19 +126,18 @@ public class KeyPressList extends java.lang.Object {
    }
 
    ////////////////////////////////////////////////////////////////////////////
+   // The same keypresses in the same order.
    public boolean equals(KeyPressList rhs) {
 //System.out.printf("%d == %d%n", size(), rhs.size());
       int size = size();
       if (size != rhs.size()) {
          return false;
       }
-//System.out.printf("%s =kpl= %s%n", toString(KeyPress.Format.HEX), rhs.toString(KeyPress.Format.HEX));
-      for (int i = 0; i < size; ++i) {
-         if (!get(i).equals(rhs.get(i))) {
-            return false;
-         }
+      if (m_Hash != 0 && rhs.m_Hash != 0 && m_Hash != rhs.m_Hash) {
+         return false;
       }
-      return true;
+//System.out.printf("%s =kpl= %s%n", toString(KeyPress.Format.HEX), rhs.toString(KeyPress.Format.HEX));
+      return equalKeys(m_Keys, rhs.m_Keys, size);
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -153,7 +171,7 @@ public class KeyPressList extends java.lang.Object {
    public KeyPressList createModified(Modifiers mod) {
       KeyPressList kpl = new KeyPressList();
       for (int i = 0; i < size(); ++i) {
-         KeyPress kp = new KeyPress(get(i).getKeyCode(), get(i).getModifiers().plus(mod));
+         KeyPress kp = KeyPress.fromKeyCode(get(i).getKeyCode(), get(i).getModifiers().plus(mod));
          kpl.add(kp);
       }
       return kpl;
@@ -179,11 +197,11 @@ public class KeyPressList extends java.lang.Object {
       if (size() == 0) {
          return "empty";
       }
-      String str = "";
-      for (KeyPress kp: m_List) {
-         str += kp.toString(format);
+      StringBuilder str = new StringBuilder();
+      for (int i = 0; i < size(); ++i) {
+         str.append(get(i).toString(format));
       }
-      return str;
+      return str.toString();
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -191,45 +209,75 @@ public class KeyPressList extends java.lang.Object {
       if (size() < kpl.size()) {
          return false;
       }
-      for (int i = 0; i < kpl.size(); ++i) {
-//System.out.printf("get(i) %s kpl.get(i) %s\n", get(i).toString(), kpl.get(i).toString());
-         if (!get(i).equals(kpl.get(i))) {
-            return false;
-         }
-      }
-      return true;
+      return equalKeys(m_Keys, kpl.m_Keys, kpl.size());
    }
 
    ////////////////////////////////////////////////////////////////////////////
    public KeyPressList sublist(int start) {
       KeyPressList kpl = new KeyPressList();
-      for (int i = start; i < size(); ++i) {
-         kpl.add(get(i));
+      if (start < size()) {
+         kpl.m_Keys = Arrays.copyOfRange(m_Keys, start, size());
+         kpl.m_Size = size() - start;
       }
       return kpl;
    }
 
    ////////////////////////////////////////////////////////////////////////////
    public KeyPressList set(int i, KeyPress kp) {
-      m_List.set(i, kp);
+      checkIndex(i);
+      m_Keys[i] = (short)kp.toKeyCode();
+      m_Hash = 0;
       return this;
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Kept until the list changes.
+   @Override
+   public int hashCode() {
+      if (m_Hash == 0) {
+         int hash = 1;
+         for (int i = 0; i < m_Size; ++i) {
+            hash = hash * 31 + m_Keys[i];
+         }
+         // 0 means not yet hashed
+         m_Hash = hash == 0 ? 1 : hash;
+      }
+      return m_Hash;
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public boolean isValid() { return size() > 0 && get(size() - 1).isValid(); }
-   public int size() { return m_List.size(); }
-   public KeyPress get(int i) { return m_List.get(i); }
-   public KeyPressList add(KeyPress kp) { m_List.add(kp); return this; }
+   public int size() { return m_Size; }
+   public KeyPress get(int i) { return KeyPress.fromCheckedKeyCode(toKeyCode(i)); }
+   public KeyPressList add(KeyPress kp) { append(kp.toKeyCode()); return this; }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // The key code with modifiers of the keypress at i.
+   int toKeyCode(int i) {
+      checkIndex(i);
+      return m_Keys[i] & 0xFFFF;
+   }
 
    // Private /////////////////////////////////////////////////////////////////
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Whether the first size key codes of a and b are the same.
+   private static boolean equalKeys(short[] a, short[] b, int size) {
+      for (int i = 0; i < size; ++i) {
+         if (a[i] != b[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    private KeyPressList getPrefixMinusModifiers(Modifiers mod) {
 //System.out.printf("kpl getPrefixMinusModifiers: mods 0x%x kpl %s (%d)%n", mod.toInt(), toString(), size());
       KeyPressList kpl = new KeyPressList();
       for (int i = 0; i < size(); ++i) {
          if (mod.isSubsetOf(get(i).getModifiers())) {
-            kpl.add(new KeyPress(get(i).getKeyCode(), get(i).getModifiers().minus(mod)));
+            kpl.add(KeyPress.fromKeyCode(get(i).getKeyCode(), get(i).getModifiers().minus(mod)));
          } else {
            break;
          }
@@ -238,21 +286,60 @@ public class KeyPressList extends java.lang.Object {
    }
 
    ////////////////////////////////////////////////////////////////////////////
-   private boolean append(KeyPress kp, String str) {
+   // Returns the index of the '>' closing a tag that starts at start,
+   // or -1 if there is none before the next '<' or the end.
+   private static int findTagEnd(CharSequence str, int start) {
+      for (int i = start; i < str.length(); ++i) {
+         char c = str.charAt(i);
+         if (c == '>') {
+            return i;
+         }
+         if (c == '<') {
+            return -1;
+         }
+      }
+      return -1;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private boolean append(KeyPress kp, CharSequence str) {
 //System.out.println("append: |" + kp.toString() + "| str \"" + str + "\"");
+      m_Hash = 0;
       if (!kp.isValid()) {
-         m_List.clear();
+         m_Size = 0;
          Log.log(String.format("KeyPressList failed to parse: %s", str));
          return false;
       }
       if (kp.getKeyCode() != 0) {
-         m_List.add(kp);
+         append(kp.toKeyCode());
       }
       return true;
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   private void append(int keyCode) {
+      if (m_Size == m_Keys.length) {
+         m_Keys = Arrays.copyOf(m_Keys, Math.max(4, m_Size * 2));
+      }
+      m_Keys[m_Size] = (short)keyCode;
+      ++m_Size;
+      m_Hash = 0;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void checkIndex(int i) {
+      if (i < 0 || i >= m_Size) {
+         throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for length %d", i, m_Size));
+      }
+   }
+
    // Data ////////////////////////////////////////////////////////////////////
-   private ArrayList<KeyPress> m_List;
+   private static final short[] sm_NO_KEYS = new short[0];
+   // KeyPress.toKeyCode() of each keypress, of which the first m_Size
+   // are used
+   private short[] m_Keys;
+   private int m_Size;
+   private int m_Hash;
 
    // Main ////////////////////////////////////////////////////////////////////
    public static void main(String[] args) {
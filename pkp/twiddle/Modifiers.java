@@ -17,13 +17,15 @@ class Modifiers {
    private static final byte sm_iLEFT_ALT = 0x4;
    private static final byte sm_iLEFT_SHIFT = 0x2;
    private static final byte sm_iLEFT_CTRL = 0x1;
-   static final Modifiers sm_GUI = new Modifiers(sm_iLEFT_GUI);
-   static final Modifiers sm_ALT = new Modifiers(sm_iLEFT_ALT);
-   static final Modifiers sm_SHIFT = new Modifiers(sm_iLEFT_SHIFT);
-   static final Modifiers sm_CTRL = new Modifiers(sm_iLEFT_CTRL);
+   // Modifiers never change, so each value is made once and shared.
+   private static final Modifiers[] sm_INTERNED = createAll();
+   static final Modifiers sm_GUI = fromInt(sm_iLEFT_GUI);
+   static final Modifiers sm_ALT = fromInt(sm_iLEFT_ALT);
+   static final Modifiers sm_SHIFT = fromInt(sm_iLEFT_SHIFT);
+   static final Modifiers sm_CTRL = fromInt(sm_iLEFT_CTRL);
    static final Modifiers sm_TRANSFERABLE = sm_CTRL.plus(sm_SHIFT).plus(sm_ALT);
-   static final Modifiers sm_EMPTY = new Modifiers(0);
-   static final Modifiers sm_END = new Modifiers(0xFF);
+   static final Modifiers sm_EMPTY = fromInt(0);
+   static final Modifiers sm_END = fromInt(0xFF);
 
    ////////////////////////////////////////////////////////////////////////////
    static void init(StringsInts keyCodeToName, int osKeyCode) {
@@ -43,7 +45,7 @@ class Modifiers {
          m <<= sm_RIGHT_SHIFT;
 //System.out.printf("fromKeyCode right shift 0x%x%n", m);
       }
-      return new Modifiers(m);
+      return fromInt(m);
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -85,21 +87,29 @@ class Modifiers {
       if (ke.getKeyLocation() == KeyEvent.KEY_LOCATION_RIGHT) {
          m <<= 4;
       }
-      return new Modifiers(m);
-   }
-
-   ////////////////////////////////////////////////////////////////////////////
-   Modifiers(Modifiers m) {
-      m_Value = m.m_Value;
-      m_Sided = m.m_Sided;
+      return fromInt(m);
    }
 
    ////////////////////////////////////////////////////////////////////////////
+   // Modifiers that are not sided equal either side.
    boolean equals(Modifiers m) {
       return m_Value == m.m_Value
           || (!m_Sided && toLeft().m_Value == m.toLeft().m_Value);
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public boolean equals(Object o) {
+      return o instanceof Modifiers && equals((Modifiers)o);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Side neutral, as equals() may be.
+   @Override
+   public int hashCode() {
+      return (m_Value | m_Value >> sm_RIGHT_BIT_SHIFT) & sm_LEFT;
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    boolean isSubsetOf(Modifiers m) {
       if ((m_Value & m.m_Value) == m_Value) {
@@ -115,17 +125,17 @@ class Modifiers {
    ////////////////////////////////////////////////////////////////////////////
    // Makes side neutral.
    Modifiers toLeft() {
-      return new Modifiers((m_Value | m_Value >> sm_RIGHT_BIT_SHIFT) & sm_LEFT);
+      return fromInt((m_Value | m_Value >> sm_RIGHT_BIT_SHIFT) & sm_LEFT);
    }
 
    ////////////////////////////////////////////////////////////////////////////
    Modifiers plus(Modifiers m) {
-      return new Modifiers(m_Value | m.m_Value);
+      return fromInt(m_Value | m.m_Value);
    }
 
    ////////////////////////////////////////////////////////////////////////////
    Modifiers minus(Modifiers m) {
-      return new Modifiers(m_Value & ~m.m_Value);
+      return fromInt(m_Value & ~m.m_Value);
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -154,6 +164,20 @@ class Modifiers {
 
    // Private /////////////////////////////////////////////////////////////////
 
+   ////////////////////////////////////////////////////////////////////////////
+   private static Modifiers[] createAll() {
+      Modifiers[] all = new Modifiers[sm_KEYS + 1];
+      for (int m = 0; m <= sm_KEYS; ++m) {
+         all[m] = new Modifiers(m);
+      }
+      return all;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   private static Modifiers fromInt(int m) {
+      return sm_INTERNED[m & sm_KEYS];
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    private Modifiers(int m) {
       m_Value = (byte)(m & sm_KEYS);
@@ -165,7 +189,7 @@ class Modifiers {
       int value = m_Sided 
                  ? m_Value
                  : (m_Value | m_Value >> sm_RIGHT_BIT_SHIFT);
-      return new Modifiers(value & (sm_iLEFT_GUI | sm_iLEFT_ALT | sm_iLEFT_SHIFT | sm_iLEFT_CTRL));
+      return fromInt(value & (sm_iLEFT_GUI | sm_iLEFT_ALT | sm_iLEFT_SHIFT | sm_iLEFT_CTRL));
    }
 
    ////////////////////////////////////////////////////////////////////////////
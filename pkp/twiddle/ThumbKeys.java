@@ -119,8 +119,13 @@ public class ThumbKeys extends java.lang.Object {
 
    ////////////////////////////////////////////////////////////////////////////
    public boolean equals(Object o) {
-      ThumbKeys other = (ThumbKeys)o;
-      return other != null && other.m_Value == m_Value;
+      return o instanceof ThumbKeys && ((ThumbKeys)o).m_Value == m_Value;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public int hashCode() {
+      return m_Value;
    }
 
    ////////////////////////////////////////////////////////////////////////////
@@ -83,14 +83,14 @@ public class Twiddle extends java.lang.Object {
 
    ////////////////////////////////////////////////////////////////////////////
    public Twiddle(String in) {
-      m_Chord = new Chord(in);
+      m_Chord = Chord.fromInt(Chord.fromString(in));
       if (m_Chord.isValid()) {
          m_ThumbKeys = new ThumbKeys(0);
       } else {
          String str = in.trim();
          int split = Io.findFirstOf(str, Io.sm_WS);
          m_ThumbKeys = new ThumbKeys(str.substring(0, split));
-         m_Chord = new Chord(str.substring(split));
+         m_Chord = Chord.fromInt(Chord.fromString(str.substring(split)));
          if (!m_ThumbKeys.isEmpty() && m_Chord.isMouseButton()) {
             Log.warn("Ignoring thumb keys with mouse button " + m_Chord);
             m_ThumbKeys = new ThumbKeys(0);
@@ -110,12 +110,21 @@ public class Twiddle extends java.lang.Object {
 
    ////////////////////////////////////////////////////////////////////////////
    public boolean equals(Object o) {
+      if (!(o instanceof Twiddle)) {
+         return false;
+      }
       Twiddle other = (Twiddle)o;
-      return other != null
-          && other.m_Chord.equals(m_Chord)
+      return other.m_Chord.equals(m_Chord)
           && other.m_ThumbKeys.equals(m_ThumbKeys);
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Distinct for each chord and thumb keys.
+   @Override
+   public int hashCode() {
+      return m_ThumbKeys.hashCode() << 16 ^ m_Chord.hashCode();
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    // a twiddle is less than another if it has fewer thumb buttons or
    // a smaller chord or a lesser thumb button.
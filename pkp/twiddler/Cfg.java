@@ -153,7 +153,7 @@ public class Cfg implements Settings {
       int mouseMultiCount = getMultiCount(mouseKeys);
       int mouseMultiSize = getMultiSize(mouseKeys);
 
-      List<Assignment> asgs = a.to121ChordList();
+      List<Assignment> asgs = new ArrayList<Assignment>(a.to121ChordList());
       // v5 has assignments sorted by twiddle
       Collections.sort(asgs);
       int multiCount = getMultiCount(asgs);
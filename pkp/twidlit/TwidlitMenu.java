@@ -8,9 +8,13 @@ package pkp.twidlit;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 import javax.swing.*;
 import javax.swing.event.MenuEvent;
+import javax.swing.text.PlainDocument;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -29,6 +33,7 @@ import pkp.twiddler.SettingsWindow;
 import pkp.chars.Counts;
 import pkp.times.ChordTimes;
 import pkp.times.SortedChordTimes;
+import pkp.ui.DocumentWriter;
 import pkp.ui.PersistentMenuBar;
 import pkp.ui.HtmlWindow;
 import pkp.ui.SaveTextWindow.Saver;
@@ -74,6 +79,8 @@ class TwidlitMenu extends PersistentMenuBar
       m_CountsMenu = new JMenu(sm_COUNTS_MENU_TEXT);
       add(m_CountsMenu);
       m_CountsBigrams = addCheckItem(m_CountsMenu, sm_COUNTS_BIGRAMS_TEXT).isSelected();
+      m_CountsUtf8 = addCheckItem(m_CountsMenu, sm_COUNTS_UTF8_TEXT).isSelected();
+      m_CountsAllNGrams = addCheckItem(m_CountsMenu, sm_COUNTS_ALL_NGRAMS_TEXT).isSelected();
       m_CountsNGrams = addCheckItem(m_CountsMenu, sm_COUNTS_NGRAMS_TEXT);
       m_NGramsFile = Persist.getFile(sm_NGRAMS_FILE_PERSIST);
       m_CountsNGrams.setEnabled(m_NGramsFile != null);
@@ -238,6 +245,24 @@ class TwidlitMenu extends PersistentMenuBar
             enableCountsMenuItems(false);
          }
          return;
+      case sm_COUNTS_UTF8_TEXT:
+         if (m_CharCounts != null) {
+            actionPerformed(sm_COUNTS_CLEAR_TEXT);
+            if (m_CharCounts != null) {
+               return;
+            }
+         }
+         m_CountsUtf8 = item.isSelected();
+         return;
+      case sm_COUNTS_ALL_NGRAMS_TEXT:
+         if (m_CharCounts != null) {
+            actionPerformed(sm_COUNTS_CLEAR_TEXT);
+            if (m_CharCounts != null) {
+               return;
+            }
+         }
+         m_CountsAllNGrams = item.isSelected();
+         return;
       case sm_COUNTS_NGRAMS_TEXT:
          if (m_CharCounts != null) {
             actionPerformed(sm_COUNTS_CLEAR_TEXT);
@@ -926,6 +951,10 @@ class TwidlitMenu extends PersistentMenuBar
                                          m_CountsMinimum,
                                          m_CountsMaximum);
                m_CharCounts.setShowBigrams(m_CountsBigrams);               
+               m_CharCounts.setUtf8(m_CountsUtf8);
+               m_CharCounts.setNGramOrder(m_CountsAllNGrams
+                                          ? Pref.getInt("#.count.ngrams.order", 4)
+                                          : 0);
             }
             if (m_Action.equals(sm_COUNTS_FILE_TEXT)) {
                if (f.isDirectory()) {
@@ -933,17 +962,15 @@ class TwidlitMenu extends PersistentMenuBar
                   return;
                }
                m_CountsInDir = f.getParent() == null ? "." : f.getParent();
-               if (f.length() < 500000) {
-                  m_CharCounts.count(f);
-                  enableCountsMenuItems(true);
-                  return;
-               }
             } else {
                if (!f.isDirectory()) {
                   Log.warn("\"" + f.getPath() + "\" is a file, Counts expected a folder.");
                   return;               
                }
                m_CountsInDir = f.getPath();
+               m_CharCounts.setCacheFile(Pref.getBool("#.count.cache", true)
+                                         ? new File(m_CountsOutDir, sm_COUNTS_CACHE_FILE_NAME)
+                                         : null);
             }
             (new CharCountThread(m_CharCounts, f)).start();
          } else if (e.getActionCommand() != "CancelSelection") {
@@ -975,21 +1002,23 @@ class TwidlitMenu extends PersistentMenuBar
       /////////////////////////////////////////////////////////////////////////////
       public void run() {
          enableCountsMenu(false);
+         List<File> files = new ArrayList<File>();
          if (!m_File.isDirectory()) {
-            m_Counts.count(m_File);
+            files.add(m_File);
          } else {
-            List<File> files = Io.listAllFilesInTree(m_File);
-            ProgressWindow pw = new ProgressWindow("Count Progress", "", 0, files.size());
-            pw.setVisible(true);
-            for (File file : files) {
-               m_Counts.count(file);
-               pw.step();
-            }
-            pw.setVisible(false);
-            pw.dispose();
+            files = Io.listAllFilesInTree(m_File);
          }
+         ProgressWindow pw = new ProgressWindow("Count Progress", "", 0, files.size());
+         pw.addNote();
+         pw.addCancel();
+         pw.setVisible(true);
+         boolean counted = m_Counts.count(files, pw);
+         pw.setVisible(false);
+         pw.dispose();
          enableCountsMenu(true);
-         enableCountsMenuItems(true);
+         if (counted) {
+            enableCountsMenuItems(true);
+         }
       }
 
       // Data ////////////////////////////////////////////////////////////////////
@@ -1002,7 +1031,7 @@ class TwidlitMenu extends PersistentMenuBar
       
       /////////////////////////////////////////////////////////////////////////////
       CharCountShowThread(Counts counts, String what, String outDir) {
-         m_Counts = new Counts(counts);
+         m_Source = counts;
          m_ShowWhat = what;
          m_OutDir = outDir;
       }
@@ -1013,22 +1042,38 @@ class TwidlitMenu extends PersistentMenuBar
             "Count Progress", "", 
             0, (int)(Counts.getProgressCount()));
          pw.setVisible(true);
+         // sort the stored counts so later ranges reuse the sort
+         m_Source.sort();
+         m_Counts = new Counts(m_Source);
+         // written straight into the window's document
+         PlainDocument doc = new PlainDocument();
+         Writer out = new BufferedWriter(new DocumentWriter(doc));
          SaveTextWindow stw = null;
-         switch (m_ShowWhat) {
-         case sm_COUNTS_TABLE_TEXT:
-            stw = new SaveTextWindow(
-               "Character Counts", 
-               m_Counts.table(pw),
-               "count.keys", 
-               m_OutDir);
-            break;
-         case sm_COUNTS_GRAPH_TEXT:
-            stw = new SaveTextWindow(
-               "Graph of Character Counts", 
-               m_Counts.graph(pw),
-               "graph.keys",
-               m_OutDir);
-            break;
+         try {
+            switch (m_ShowWhat) {
+            case sm_COUNTS_TABLE_TEXT:
+               m_Counts.table(out, pw);
+               out.close();
+               stw = new SaveTextWindow(
+                  "Character Counts", 
+                  doc,
+                  "count.keys", 
+                  m_OutDir);
+               break;
+            case sm_COUNTS_GRAPH_TEXT:
+               m_Counts.graph(out, pw);
+               out.close();
+               stw = new SaveTextWindow(
+                  "Graph of Character Counts", 
+                  doc,
+                  "graph.keys",
+                  m_OutDir);
+               break;
+            }
+         } catch (IOException e) {
+            pw.setVisible(false);
+            Log.err("Failed to show the counts: " + e);
+            return;
          }
          stw.setChoosenFileUser(new CountsChoosenFileUser());
          stw.setVisible(true);
@@ -1036,6 +1081,7 @@ class TwidlitMenu extends PersistentMenuBar
       }
 
       // Data ////////////////////////////////////////////////////////////////////
+      private Counts m_Source;
       private Counts m_Counts;
       private String m_ShowWhat;
       private String m_OutDir;
@@ -1060,6 +1106,8 @@ class TwidlitMenu extends PersistentMenuBar
    private static final String sm_COUNTS_FILES_TEXT = "Count Files...";
    private static final String sm_COUNTS_BIGRAMS_TEXT = "Include Bigrams";
    private static final String sm_COUNTS_NGRAMS_TEXT = "Include Ngrams";
+   private static final String sm_COUNTS_UTF8_TEXT = "Decode UTF-8";
+   private static final String sm_COUNTS_ALL_NGRAMS_TEXT = "Include All Ngrams";
    private static final String sm_COUNTS_NGRAM_FILE_TEXT = "NGrams File...";
    private static final String sm_COUNTS_RANGE_TEXT = "Set Range Displayed...";
    private static final String sm_COUNTS_TABLE_TEXT = "Table Counts";
@@ -1095,6 +1143,7 @@ class TwidlitMenu extends PersistentMenuBar
    private static final String sm_BUTTON_TIMES_TITLE = "Compare Button Times";
 
    static final String sm_LOG_FILE_NAME = "twidlit.log";
+   static final String sm_COUNTS_CACHE_FILE_NAME = "twidlit.counts.cache";
 
    private static final String sm_TEST = "#.test.code.untargeted";
    private static final String sm_TEST_PERSIST = "#.test.code.not.in.persist";
@@ -1145,6 +1194,8 @@ class TwidlitMenu extends PersistentMenuBar
    private int m_CountsMinimum; 
    private int m_CountsMaximum; 
    private boolean m_CountsBigrams; 
+   private boolean m_CountsUtf8; 
+   private boolean m_CountsAllNGrams; 
    private JCheckBoxMenuItem m_CountsNGrams; 
    private File m_NGramsFile;
    private ButtonGroup m_HandButtons;
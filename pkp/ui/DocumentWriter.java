@@ -0,0 +1,45 @@
+/**
+ * Copyright 2015 Pushkar Piggott
+ *
+ *  DocumentWriter.java
+ *
+ * Writes to the end of a text component's document, so long text can be
+ * written straight into the model rather than built as a String first.
+ * Wrap it in a BufferedWriter so the document grows a block at a time.
+ */
+package pkp.ui;
+
+import java.io.IOException;
+import java.io.Writer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+///////////////////////////////////////////////////////////////////////////////
+public class DocumentWriter extends Writer {
+
+   ////////////////////////////////////////////////////////////////////////////
+   public DocumentWriter(Document doc) {
+      m_Document = doc;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public void write(char[] cbuf, int off, int len) throws IOException {
+      try {
+         m_Document.insertString(m_Document.getLength(), new String(cbuf, off, len), null);
+      } catch (BadLocationException e) {
+         throw new IOException("Failed to append to document: " + e);
+      }
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public void flush() {}
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override
+   public void close() {}
+
+   // Data ////////////////////////////////////////////////////////////////////
+   private final Document m_Document;
+}
@@ -5,8 +5,13 @@
  */
 package pkp.ui;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowEvent;
+import javax.swing.JButton;
 import javax.swing.JProgressBar;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 import pkp.util.Pref;
 
 ///////////////////////////////////////////////////////////////////////////////
@@ -22,6 +27,8 @@ public class ProgressWindow extends ControlWindow {
       m_ProgressBar.setBackground(Pref.getColor("#.background.color"));
       add(m_ProgressBar);
       m_Count = min;
+      m_Note = null;
+      m_Cancelled = false;
    }
    
    ////////////////////////////////////////////////////////////////////////////
@@ -44,7 +51,53 @@ public class ProgressWindow extends ControlWindow {
       m_ProgressBar.setValue(++m_Count);
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds a line under the bar that setNote() can change.
+   public void addNote() {
+      m_Note = new JLabel(" ");
+      add(m_Note);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // May be called from any thread.
+   public void setNote(final String note) {
+      if (m_Note == null) {
+         return;
+      }
+      SwingUtilities.invokeLater(new Runnable() {
+         public void run() {
+            m_Note.setText(note);
+         }
+      });
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   // Adds a Cancel button. Closing the window also cancels.
+   public void addCancel() {
+      JButton b = new JButton("Cancel");
+      b.addActionListener(new ActionListener() {
+         public void actionPerformed(ActionEvent e) {
+            m_Cancelled = true;
+         }
+      });
+      add(b);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public boolean isCancelled() {
+      return m_Cancelled;
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   @Override // PersistentWindow
+   public void windowClosing(WindowEvent e) {
+      m_Cancelled = true;
+      super.windowClosing(e);
+   }
+
    // Data ////////////////////////////////////////////////////////////////////
    private JProgressBar m_ProgressBar;
+   private JLabel m_Note;
    private int m_Count;
+   private volatile boolean m_Cancelled;
 }
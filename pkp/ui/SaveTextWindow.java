@@ -16,6 +16,7 @@ import javax.swing.JButton;
 import javax.swing.JPanel;
 import javax.swing.JOptionPane;
 import java.util.ArrayList;
+import javax.swing.text.Document;
 import pkp.ui.ExtensionFileFilter;
 import pkp.util.Log;
 import pkp.io.Io;
@@ -44,19 +45,13 @@ public class SaveTextWindow extends TextWindow implements ActionListener {
    ////////////////////////////////////////////////////////////////////////////
    public SaveTextWindow(String title, String str, String ext) {
       super(title, str);
-      m_FileChooser = null;
-      m_Extension = new ArrayList<String>();
-      m_Extension.add(ext);
-      m_Dir = ".";
-      m_Saver = null;
-      m_ChoosenFileUser = null;
-      m_Buttons = new ArrayList<JButton>();
-      m_OkButton = 0;
-      m_ButtonsSet = false;
-      m_Buttons.add(new JButton(sm_SAVE_AS_TEXT));
-      m_Buttons.get(m_OkButton).addActionListener(this);
-      m_ButtonPanel = new JPanel(new FlowLayout(FlowLayout.TRAILING));
-      getContentPane().add(m_ButtonPanel, BorderLayout.PAGE_END);
+      init(ext);
+   }
+
+   ////////////////////////////////////////////////////////////////////////////
+   public SaveTextWindow(String title, Document doc, String ext) {
+      super(title, doc);
+      init(ext);
    }
 
    ///////////////////////////////////////////////////////////////////
@@ -124,7 +119,7 @@ public class SaveTextWindow extends TextWindow implements ActionListener {
                "\"" + f.getPath() + "\" exists, overwrite?", 
                "File Exists", 
                JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
-            Io.write(f, getText());
+            write(f);
             if (m_ChoosenFileUser != null) {
                m_ChoosenFileUser.setFileChooser(m_FileChooser);
             }
@@ -144,6 +139,25 @@ public class SaveTextWindow extends TextWindow implements ActionListener {
       ExtensionFileFilter.setFileFilters(m_FileChooser, m_Extension);
    }
    
+   // Private /////////////////////////////////////////////////////////////////
+
+   ////////////////////////////////////////////////////////////////////////////
+   private void init(String ext) {
+      m_FileChooser = null;
+      m_Extension = new ArrayList<String>();
+      m_Extension.add(ext);
+      m_Dir = ".";
+      m_Saver = null;
+      m_ChoosenFileUser = null;
+      m_Buttons = new ArrayList<JButton>();
+      m_OkButton = 0;
+      m_ButtonsSet = false;
+      m_Buttons.add(new JButton(sm_SAVE_AS_TEXT));
+      m_Buttons.get(m_OkButton).addActionListener(this);
+      m_ButtonPanel = new JPanel(new FlowLayout(FlowLayout.TRAILING));
+      getContentPane().add(m_ButtonPanel, BorderLayout.PAGE_END);
+   }
+
    // Data ////////////////////////////////////////////////////////////////////
    private JFileChooser m_FileChooser;
    private JPanel m_ButtonPanel;
@@ -9,6 +9,7 @@ import java.awt.*;
 import javax.swing.*;
 import java.io.*;
 import java.net.URL;
+import javax.swing.text.Document;
 import pkp.util.Pref;
 import pkp.util.Log;
 
@@ -34,6 +35,15 @@ public class TextWindow extends PersistentWindow {
       replaceText(str);
    }
    
+   ////////////////////////////////////////////////////////////////////////////
+   // Shows doc, eg as written by a DocumentWriter, without copying it.
+   public TextWindow(String title, Document doc) {
+      this();
+      setTitle(title);
+      m_TextArea.setDocument(doc);
+      scrollTop();
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public TextWindow(URL url) {
       this();
@@ -104,6 +114,18 @@ public class TextWindow extends PersistentWindow {
       return m_TextArea.getText();
    }
 
+   ////////////////////////////////////////////////////////////////////////////
+   // Writes the text to f from the document, without copying it.
+   public void write(File f) {
+      try {
+         BufferedWriter bw = new BufferedWriter(new FileWriter(f));
+         m_TextArea.write(bw);
+         bw.close();
+      } catch (IOException e) {
+         Log.warn("TextWindow failed to write to \"" + f.getPath() + "\".");
+      }
+   }
+
    ////////////////////////////////////////////////////////////////////////////
    public void setBackgroundColor(Color c) {
       ((JLabel)getContentPane()).setBackground(c);
@@ -96,13 +96,20 @@ public class Log implements ActionListener {
 
    ////////////////////////////////////////////////////////////////////////////
    public static void warn(String msg) {
-      JOptionPane.showMessageDialog(sm_Window, msg, "Warning", JOptionPane.WARNING_MESSAGE);
+      if (GraphicsEnvironment.isHeadless()) {
+         System.err.println(Level.WARN.m_Name + msg);
+      } else {
+         JOptionPane.showMessageDialog(sm_Window, msg, "Warning", JOptionPane.WARNING_MESSAGE);
+      }
       sm_Log.log1(Level.WARN, msg);
    }
 
    ////////////////////////////////////////////////////////////////////////////
    public static void err(String msg) {
-      JOptionPane.showMessageDialog(sm_Window, msg, "Error", JOptionPane.ERROR_MESSAGE);
+      // logging an error prints it too
+      if (!GraphicsEnvironment.isHeadless()) {
+         JOptionPane.showMessageDialog(sm_Window, msg, "Error", JOptionPane.ERROR_MESSAGE);
+      }
 		if (sm_Log != null) {
 			sm_Log.log1(Level.ERROR, msg);
 		}
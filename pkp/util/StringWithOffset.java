@@ -6,11 +6,16 @@
 package pkp.util;
 
 public class StringWithOffset {
-   public StringWithOffset(String str) {
+   public StringWithOffset(CharSequence str) {
       m_Str = str;
       m_Offset = 0;
    }
-   public StringWithOffset(String str, int i) {
+   public StringWithOffset(CharSequence str, int i) {
+      m_Str = str;
+      setOffset(i);
+   }
+   // Reuses this for another string.
+   public void set(CharSequence str, int i) {
       m_Str = str;
       setOffset(i);
    }
@@ -21,12 +26,15 @@ public class StringWithOffset {
       m_Offset = m_Str.length();
    }
    public String getString() {
+      return m_Str.toString();
+   }
+   public CharSequence getChars() {
       return m_Str;
    }
    public int getOffset() {
       return m_Offset;
    }
-   private String m_Str;
+   private CharSequence m_Str;
    private int m_Offset;
 }
 
@@ -577,18 +577,16 @@ public class ChordMapper extends ControlDialog
       }
 //System.out.printf("%d %s %s%n", m_Assignments.size(), m_Assignments.get(1).getKeyPressList().toString(KeyPress.Format.ESC), kpl.toString(KeyPress.Format.ESC));
       String action = m_CheckBoxSkipDupKeys.isSelected() ? "Skipped" : "Found";
-      for (int i = 0; i < m_Assignments.size(); ++i) {
-         if (kpl.equals(m_Assignments.get(i).getKeyPressList())) {
-            String keys = line.substring(initial, initial + length);
-            Log.log(String.format(action + " repeat of '%s' on line %d of %s.",
-                                  keys, lr.getLineNumber(), lr.getPath()));
-            if (m_CheckBoxSkipDupKeys.isSelected()) {
-               ++m_DuplicateKeys;
-               if ("".equals(m_DuplicateKey)) {
-                  m_DuplicateKey = keys;
-               }
-               return "";
+      if (m_Assignments.find(kpl) != -1) {
+         String keys = line.substring(initial, initial + length);
+         Log.log(String.format(action + " repeat of '%s' on line %d of %s.",
+                               keys, lr.getLineNumber(), lr.getPath()));
+         if (m_CheckBoxSkipDupKeys.isSelected()) {
+            ++m_DuplicateKeys;
+            if ("".equals(m_DuplicateKey)) {
+               m_DuplicateKey = keys;
             }
+            return "";
          }
       }
       return kpl.toString(KeyPress.Format.TAG);
@@ -7,11 +7,21 @@
 package pkp.utilities;
 
 import java.awt.Font;
+import javax.swing.text.Document;
 
 //////////////////////////////////////////////////////////////////////
 public class SaveTextWindow extends pkp.ui.SaveTextWindow {
    public SaveTextWindow(String title, String str, String ext, String dir) {
       super(title, str, ext);
+      init(dir);
+   }
+
+   public SaveTextWindow(String title, Document doc, String ext, String dir) {
+      super(title, doc, ext);
+      init(dir);
+   }
+
+   private void init(String dir) {
       setDirectory(dir);
       Font font = getFont();
       setFont(new Font("monospaced", font.getStyle(), font.getSize()));